@@ -0,0 +1,322 @@
+package zaluc.gparser200;
+
+import java.io.*;
+
+import zaluc.utils.*;
+
+//+-- Class EventArena -------------------------------------------------------+
+//|                                                                           |
+//| Syntax:       class EventArena                                            |
+//|                                                                           |
+//| Description:  The EventArena class holds the events of every person in    |
+//|               the file as columns of int arrays, one entry per event,     |
+//|               instead of as a GedcomEvent object each, with its handle,   |
+//|               its Strings and its GedcomDate.  An event is its type and   |
+//|               value, as IDs in the arena's own table of strings, the sort |
+//|               key of its date and the ID of the date's text in the same   |
+//|               table, the ID of its place in Parser.placeTable, and the    |
+//|               gedcom ID number of the person it belongs to.  An event is |
+//|               known by its index in the arena.  The strings are kept      |
+//|               apart from Parser.namePool, which only holds names.         |
+//|                                                                           |
+//|               The events of a person are added all at once, when the      |
+//|               person has been parsed, so they are one after the other in |
+//|               the arena, and the person only keeps where they start and   |
+//|               how many there are.  They are put in date order as they    |
+//|               are added, so nothing needs to be sorted when the person is |
+//|               written.  Events with no date come after the ones with one. |
+//|                                                                           |
+//|               While a person is being parsed, its events are collected   |
+//|               in a Pending list, which keeps the Strings and dates as     |
+//|               they were read.  In bounded memory mode, a Pending list is |
+//|               what is written to the PersonStore and read back.           |
+//|                                                                           |
+//|               An arena is only used by one thread at a time, so it takes |
+//|               no locks.  Each parser thread fills an arena of its own,    |
+//|               see ParallelParser, and PeopleList.merge copies the events  |
+//|               of each chunk from it to Parser.eventArena with addAll.     |
+//|               After that, Parser.eventArena is only read.                 |
+//|                                                                           |
+//| Methods:      public int     add        (Pending events, int owner)       |
+//|               public int[]   internStrings (EventArena source)            |
+//|               public int     addAll     (EventArena source, int start,    |
+//|                                          int end, int stringMap[],        |
+//|                                          int placeMap[])                  |
+//|               public int     dateKey    (int event)                       |
+//|               public int     owner      (int event)                       |
+//|               public boolean appendTo   (int event, StringBuffer buf)     |
+//|               public int     size       ()                                |
+//|               public void    printStats (PrintStream out)                 |
+//|                                                                           |
+//|---------------------------------------------------------------------------+
+
+class EventArena
+{
+  public static final int NONE = -1;       // The index for no event
+
+  // Rough size of an event held as objects on a 64 bit VM:  the
+  // GedcomEvent, its SortableHandle, its slot in the person's vector and
+  // its GedcomDate.  Used only for printStats.
+  private static final int OBJECT_BYTES = 32 + 24 + 4 + 24;
+  private static final int COLUMNS      = 6;
+
+  private NamePool strings = new NamePool(); // Types, values and dates as written
+  private int types[];                     // IDs in strings, NONE if none
+  private int values[];
+  private int dates[];                     // Date sort keys, GedcomEvent.NO_DATE if none
+  private int dateTexts[];                 // IDs in strings of the dates as written
+  private int places[];                    // IDs in Parser.placeTable
+  private int owners[];                    // Gedcom ID number of the person
+  private int count = 0;
+
+  //+-- Class Pending --------------------------------------------------------+
+  //| The events of one person while it is being parsed, as they were read.   |
+  //+-------------------------------------------------------------------------+
+  static class Pending
+  {
+    String     types[]  = new String[16];
+    String     values[] = new String[16];
+    GedcomDate dates[]  = new GedcomDate[16];
+    int        places[] = new int[16];
+    int        count    = 0;
+
+    private int  order[] = new int[16];
+    private long keys[]  = new long[16];
+
+    // Adds an event and returns its index
+    int add (String type, String value)
+    {
+      if (count == types.length)
+        grow();
+
+      types[count]  = type;
+      values[count] = value;
+      dates[count]  = null;
+      places[count] = PlaceTable.NONE;
+      return count++;
+    }
+
+    int dateKey (int index)
+    {
+      return (dates[index] != null) ? dates[index].key() : GedcomEvent.NO_DATE;
+    }
+
+    // Puts the events in date order.  Events with the same date stay in
+    // the order they were read.
+    void sort ()
+    {
+      String     oldTypes[]  = new String[count];
+      String     oldValues[] = new String[count];
+      GedcomDate oldDates[]  = new GedcomDate[count];
+      int        oldPlaces[] = new int[count];
+      int        i;
+
+      for (i = 0; i < count; i++)
+      {
+        order[i] = i;
+        keys[i]  = dateKey (i);
+      }
+      KeySort.sort (order, count, keys, null);
+
+      System.arraycopy (types,  0, oldTypes,  0, count);
+      System.arraycopy (values, 0, oldValues, 0, count);
+      System.arraycopy (dates,  0, oldDates,  0, count);
+      System.arraycopy (places, 0, oldPlaces, 0, count);
+      for (i = 0; i < count; i++)
+      {
+        types[i]        = oldTypes[order[i]];
+        values[i]       = oldValues[order[i]];
+        dates[i]        = oldDates[order[i]];
+        places[i]       = oldPlaces[order[i]];
+      }
+    }
+
+    boolean appendTo (int index, StringBuffer buf)
+    {
+      return GedcomEvent.appendTo (buf, types[index], values[index],
+                                   (dates[index] != null) ? dates[index].toString() : null,
+                                   Parser.placeTable.name (places[index]));
+    }
+
+    // Makes a GedcomEvent of one of the events, for events that are kept
+    // as objects, like a marriage.
+    GedcomEvent toEvent (int index)
+    {
+      return new GedcomEvent (types[index], values[index], dates[index], places[index]);
+    }
+
+    void clear ()
+    {
+      int i;
+
+      for (i = 0; i < count; i++)
+      {
+        types[i]  = null;
+        values[i] = null;
+        dates[i]  = null;
+      }
+      count = 0;
+    }
+
+    private void grow ()
+    {
+      String     newTypes[]  = new String[count * 2];
+      String     newValues[] = new String[count * 2];
+      GedcomDate newDates[]  = new GedcomDate[count * 2];
+      int        newPlaces[] = new int[count * 2];
+
+      System.arraycopy (types,  0, newTypes,  0, count);
+      System.arraycopy (values, 0, newValues, 0, count);
+      System.arraycopy (dates,  0, newDates,  0, count);
+      System.arraycopy (places, 0, newPlaces, 0, count);
+      types  = newTypes;
+      values = newValues;
+      dates  = newDates;
+      places = newPlaces;
+      order  = new int[count * 2];
+      keys   = new long[count * 2];
+    }
+  }
+
+  public EventArena ()
+  {
+    this (1024);
+  }
+
+  public EventArena (int expectedCount)
+  {
+    int size = Math.max (expectedCount, 16);
+
+    types     = new int[size];
+    values    = new int[size];
+    dates     = new int[size];
+    dateTexts = new int[size];
+    places    = new int[size];
+    owners    = new int[size];
+  }
+
+  // Sorts the pending events and adds them all, one after the other.
+  // Returns the index of the first one.
+  public int add (Pending events, int owner)
+  {
+    int start = count;
+    int i;
+
+    events.sort();
+    for (i = 0; i < events.count; i++)
+      addEvent (events, i, owner);
+
+    return start;
+  }
+
+  // Adds every string of another arena, a parser thread's, to this one's.
+  // Returns an array that gives, for each string ID in the other arena,
+  // the ID in this one.
+  public int[] internStrings (EventArena source)
+  {
+    return strings.internAll (source.strings);
+  }
+
+  // Copies the events from start to end of another arena, a parser
+  // thread's, to the end of this one, translating their string IDs with
+  // stringMap, see internStrings, and their place IDs with placeMap, see
+  // PlaceTable.internAll.  The events stay in the same order, so each
+  // person's events are still one after the other.  Returns the index
+  // here of the first one.
+  public int addAll (EventArena source, int start, int end, int stringMap[], int placeMap[])
+  {
+    int first = count;
+    int i;
+
+    while (count + (end - start) > types.length)
+      grow();
+
+    for (i = start; i < end; i++)
+    {
+      types[count]     = translate (stringMap, source.types[i]);
+      values[count]    = translate (stringMap, source.values[i]);
+      dates[count]     = source.dates[i];
+      dateTexts[count] = translate (stringMap, source.dateTexts[i]);
+      places[count]    = translate (placeMap, source.places[i]);
+      owners[count]    = source.owners[i];
+      count++;
+    }
+
+    return first;
+  }
+
+  public int dateKey (int event)
+  {
+    return dates[event];
+  }
+
+  public int owner (int event)
+  {
+    return owners[event];
+  }
+
+  // Adds the event to the end of buf, the way GedcomEvent.toString shows
+  // it.  Returns false, having added nothing, if there is nothing to show.
+  public boolean appendTo (int event, StringBuffer buf)
+  {
+    return GedcomEvent.appendTo (buf, strings.name (types[event]), strings.name (values[event]),
+                                 (dates[event] != GedcomEvent.NO_DATE) ? strings.name (dateTexts[event]) : null,
+                                 Parser.placeTable.name (places[event]));
+  }
+
+  public int size ()
+  {
+    return count;
+  }
+
+  public void printStats (PrintStream out)
+  {
+    out.println ("Event arena: " + count + " events, " + (count * 4L * COLUMNS) + " bytes, " +
+                 (4 * COLUMNS) + " bytes per event (about " + OBJECT_BYTES + " as objects), " +
+                 strings.size() + " distinct strings");
+  }
+
+  //+-------------------------------------------------+
+  //| Internal routines                               |
+  //+-------------------------------------------------+
+
+  private int addEvent (Pending events, int index, int owner)
+  {
+    GedcomDate date = events.dates[index];
+
+    if (count == types.length)
+      grow();
+
+    types[count]     = strings.internId (events.types[index]);
+    values[count]    = strings.internId (events.values[index]);
+    dates[count]     = (date != null) ? date.key() : GedcomEvent.NO_DATE;
+    dateTexts[count] = (date != null) ? strings.internId (date.toString()) : NONE;
+    places[count]    = events.places[index];
+    owners[count]    = owner;
+
+    return count++;
+  }
+
+  private static int translate (int map[], int id)
+  {
+    return (id != NONE) ? map[id] : NONE;
+  }
+
+  private void grow ()
+  {
+    types     = grow (types);
+    values    = grow (values);
+    dates     = grow (dates);
+    dateTexts = grow (dateTexts);
+    places    = grow (places);
+    owners    = grow (owners);
+  }
+
+  private int[] grow (int column[])
+  {
+    int newColumn[] = new int[column.length * 2];
+
+    System.arraycopy (column, 0, newColumn, 0, count);
+    return newColumn;
+  }
+}
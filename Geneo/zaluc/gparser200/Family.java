@@ -16,25 +16,31 @@ import zaluc.utils.*;
 //|               That is done with the Person.mother and Person.father       |
 //|               links.                                                      |
 //|                                                                           |
-//| Methods:      addChild: Add a child to the family.                        |
-//|               write:    Writes the data for the family to the output file.|
+//| Methods:      addChild:     Add a child to the family.                    |
+//|               setFather:    Links the husband to the family.              |
+//|               setMother:    Links the wife to the family.                 |
+//|               linkChild:    Links a child to the family.                  |
+//|               spouseOf:     The other spouse of a person in the family. |
+//|               appendMarriage: Adds the marriage event, as a spouse sees   |
+//|                             it, to a buffer.                              |
+//|               write:        Writes the data for the family to the output  |
+//|                             file.                                         |
+//|               getStartKey:  The date the family started, for sorting.     |
 //|                                                                           |
 //|---------------------------------------------------------------------------+
 
-class Family implements SortableObject
+class Family
 {
-  int            id = 0;
-  SortableHandle wifesListHandle    = new SortableHandle (this);
-  SortableHandle husbandsListHandle = new SortableHandle (this);
-  GedcomEvent    marriage = null;
+  int            id = 0;        // Dense index of the family's xref, see XrefMap
+  GedcomEvent    marriage = null;   // Shared by both spouses, see appendMarriage
   Person         father;
   Person         mother;
-  SortableVector children = new SortableVector(6,6, Person.compareByAge);
+  Vector         children = new Vector(6, 0);   // Sorted by PeopleList.sort
 
   /*-------------------------------------------------------------------------*/
   /* This index is the index into the main family list, which is not sorted. */
-  /* The listHandles also contain an index.  The listHandle's are used by    */
-  /* the father and mother of the family to sort their families.  The index  */
+  /* The father and mother of the family keep the family itself in their    */
+  /* families vectors, which PeopleList.sort puts in order.  The index      */
   /* below is the one that is used to indentify the family by Geneo.         */
   /*-------------------------------------------------------------------------*/
   int index;
@@ -43,7 +49,59 @@ class Family implements SortableObject
 
   public void addChild (Person child)
   {
-    children.addElement(child.familyListHandle);
+    children.addElement(child);
+  }
+
+  public void setFather (Person father)
+  {
+    this.father = father;
+    if (father != null)
+      father.addFamily(this);
+  }
+
+  public void setMother (Person mother)
+  {
+    this.mother = mother;
+    if (mother != null)
+      mother.addFamily(this);
+  }
+
+  // The child's father and mother are set from childOfFamily once all of
+  // the links have been made, since the husband and wife might not have
+  // been linked to the family yet.
+  public void linkChild (Person child)
+  {
+    // Just in case a preferred family isn't specified, or the
+    // specified preferred family doesn't exist, if the child has
+    // not already been assigned to a family, assign it now.
+    // However, even if the child has already been assigned to a
+    // family, if this is the child's preferred family, re-assign it.
+    if ((child.preferredFamily == id) ||
+        (child.childOfFamily   == null))
+    {
+      child.childOfFamily = this;
+    }
+    addChild (child);
+  }
+
+  // Returns the other spouse of the family, or null if there isn't one
+  public Person spouseOf (Person spouse)
+  {
+    return (spouse == father) ? mother : father;
+  }
+
+  // Adds the marriage event to the end of buf the way the given spouse
+  // sees it, with the name of the other spouse as its value.  The event
+  // itself is kept once for the family and isn't changed.  Returns false
+  // if there is no marriage or nothing to show.
+  public boolean appendMarriage (StringBuffer buf, Person spouse)
+  {
+    Person other = spouseOf(spouse);
+
+    if (marriage == null)
+      return false;
+
+    return marriage.appendTo(buf, (other != null) ? other.fullName : null);
   }
 
   public void write(Record record) throws IOException
@@ -55,61 +113,25 @@ class Family implements SortableObject
     {
       written = true;
       record.write(Record.FAMILY, index);
-      if (father != null) record.write(Record.FATHER, father.mainListHandle.getIndex());
-      if (mother != null) record.write(Record.MOTHER, mother.mainListHandle.getIndex());
+      if (father != null) record.write(Record.FATHER, father.getIndex());
+      if (mother != null) record.write(Record.MOTHER, mother.getIndex());
 
       enum = children.elements();
       while (enum.hasMoreElements())
       {
-        curChild = (Person) ((SortableHandle) enum.nextElement()).getContainer();
-        record.write(Record.CHILD, curChild.mainListHandle.getIndex());
+        curChild = (Person) enum.nextElement();
+        record.write(Record.CHILD, curChild.getIndex());
       }
     }
   }
 
-  //+-----------------------------------------+
-  //| Routine for implementing SortableObject |
-  //+-----------------------------------------+
-
-  public int compareTo (SortableObject soOther, int compareToken)
-  {
-    Family      other = (Family)soOther;
-    int         ret = 0;
-    GedcomEvent event1, event2;
-
-    /* Since we always sort the same way, */
-    /* we can ignore the compareToken     */
-
-    /* First find some dates we can compare.  We prefer the marriage date, */
-    /* but, if there isn't one, we'll take the birth date of a child.      */
-
-    event1 = getComparableEvent();
-    if (other != null)
-      event2 = other.getComparableEvent();
-    else
-      event2 = null;
-
-    if (event1 != null)
-    {
-      ret = event1.compareTo (event2, compareToken);
-    }
-    else if (event2 != null)
-    {
-      /* Return null marriages after known marriages */
-      ret = 1; 
-    }
-    else
-    {
-      ret = 0;
-    }
-
-    return ret;
-  }
-
   /**
-   * Don't return an event unless it has a date associated with it.
+   * Returns the sort key of the date the family started, or
+   * GedcomEvent.NO_DATE if no date could be found.  We prefer the
+   * marriage date, but, if there isn't one, we'll take the birth date of
+   * a child.
    */
-  private GedcomEvent getComparableEvent ()
+  public int getStartKey ()
   {
     Enumeration enum;
     Person      curChild;
@@ -118,7 +140,7 @@ class Family implements SortableObject
 
     if ((marriage != null) &&
         (marriage.getDate() != null))
-      return marriage;
+      return marriage.getDateKey();
 
     /* If there is no marriage date, try to find a birth date for */
     /* one of the kids, starting with the oldest to the youngest. */
@@ -128,15 +150,14 @@ class Family implements SortableObject
     enum = children.elements();
     while (enum.hasMoreElements())
     {
-      curChild = (Person) ((SortableHandle) enum.nextElement()).getContainer();
+      curChild = (Person) enum.nextElement();
       if ((curChild != null) &&
-          (curChild.birth != null) &&
-          (curChild.birth.getDate() != null))
-        return curChild.birth;
+          (curChild.getBirthKey() != GedcomEvent.NO_DATE))
+        return curChild.getBirthKey();
     }
 
     /* No dates could be found to determine the start of this family */
 
-    return null;
+    return GedcomEvent.NO_DATE;
   }
 }
@@ -8,189 +8,141 @@
 
 package zaluc.gparser200;
 
-import java.util.*;
+import java.io.*;
 
 //+-- Class GedcomDate -------------------------------------------------------+
 //|                                                                           |
-//| Syntax:       class GedcomDate implements SortableObject                  |
+//| Syntax:       class GedcomDate                                            |
 //|                                                                           |
 //| Description:  A GedcomDate contains code for storing and comparing dates. |
 //|               Dates can also be retrieved in string format.               |
 //|                                                                           |
-//| Methods:                                                                  |
+//|               The date is parsed once, in a single pass over its          |
+//|               characters, into a sort key that packs the year, month,     |
+//|               day and qualifier into one int:                             |
+//|                                                                           |
+//|                  bits 13-26:  year, or NO_YEAR                            |
+//|                  bits  9-12:  month, 0 to 11, or NO_MONTH                 |
+//|                  bits  3- 8:  day, 1 to 31, or NO_DAY                     |
+//|                  bits  0- 2:  qualifier                                   |
+//|                                                                           |
+//|               The unknown parts are bigger than any real value, so dates  |
+//|               that leave them out sort after the ones that have them, as |
+//|               they always have.  The qualifier only matters between       |
+//|               dates that are otherwise the same:  BEF comes first, then   |
+//|               ABT, EST and CAL, then the plain date, then a BET or FROM   |
+//|               range that starts on it, then AFT.  A range is keyed on     |
+//|               its start; everything from its AND or TO on is ignored.     |
+//|                                                                           |
+//| Methods:      public     GedcomDate  (GedcomDate source)                  |
+//|               public     GedcomDate  (String     date)                    |
+//|               public int compareTo   (GedcomDate other)                   |
+//|               public int key         ()                                   |
+//|               public boolean hasYear ()                                   |
+//|               public int getYear     ()                                   |
+//|               public static boolean hasYear (int key)                     |
+//|               public static int     getYear (int key)                     |
+//|               public static void printMemory (PrintStream out,            |
+//|                                               long        count)          |
 //|                                                                           |
 //|---------------------------------------------------------------------------+
 
 class GedcomDate
 {
   private String date;
-  private int    day;
-  private int    month;
-  private int    year;
+  private int    key;        // The packed sort key, see above
+
+  // Qualifiers, in the order they sort in
+  static final int BEFORE = 0;
+  static final int ABOUT  = 1;
+  static final int EXACT  = 2;
+  static final int RANGE  = 3;
+  static final int AFTER  = 4;
 
-  private static final int UNUSED = 3000;
+  private static final int NO_YEAR  = 0x3FFF;
+  private static final int NO_MONTH = 0xF;
+  private static final int NO_DAY   = 0x3F;
 
-  private static final int DAY_FOUND   = 1;
-  private static final int MONTH_FOUND = 2;
-  private static final int YEAR_FOUND  = 4;
-  private static final int ALL_FOUND   = 7;
-  private static final int NONE_FOUND  = 0;
+  private static final int YEAR_SHIFT  = 13;
+  private static final int MONTH_SHIFT = 9;
+  private static final int DAY_SHIFT   = 3;
+
+  // The day, month and year used to be kept in three ints.  The key takes
+  // the place of all three, so each date is two ints smaller.
+  private static final int BYTES_SAVED = 8;
+
+  // Words are matched on their first three letters, in lower case, packed
+  // into an int, so "January", "JAN" and "jan." are all the same word.
+  private static final int months[] =
+  {
+    word("jan"), word("feb"), word("mar"), word("apr"), word("may"), word("jun"),
+    word("jul"), word("aug"), word("sep"), word("oct"), word("nov"), word("dec")
+  };
+  private static final int BEF = word("bef");
+  private static final int AFT = word("aft");
+  private static final int ABT = word("abt");
+  private static final int ABO = word("abo");   // ABOUT
+  private static final int EST = word("est");
+  private static final int CAL = word("cal");
+  private static final int BET = word("bet");
+  private static final int FRO = word("fro");   // FROM
+  private static final int AND = word("and");
 
   public GedcomDate(GedcomDate source)
   {
     if (source.date != null)
       date  = new String(source.date);
-    day   = source.day;
-    month = source.month;
-    year  = source.year;
+    key = source.key;
   }
 
   public GedcomDate(String date)
   {
-    StringTokenizer t;
-    String          curToken;
-    String          intStr;
-    int             found = NONE_FOUND;
-    int             tempInt;
-
     this.date = date;
-    day = month = year = UNUSED;    // Initialize these values to real large
-                                    // so that, in later compares, unused
-                                    // values will appear later than used values.
-
-    // Now break out the year, day and month into integers for easy use
-    // in sorting.
-
-    if (date != null)
-    {
-      t = new StringTokenizer(date, "\n ", false);
-
-      while (((found & ALL_FOUND) != ALL_FOUND) &&
-             t.hasMoreTokens())
-      {
-        curToken = t.nextToken();
-        intStr  = getInt(curToken);
+    this.key  = parse(date);
+  }
 
-        if (intStr != null)
-        {
-          // It's a year or a day, find out which and save it in the
-          // appropriate spot.
-          tempInt = Integer.parseInt(intStr);
-
-          if (((found & YEAR_FOUND) == 0) &&
-              (tempInt > 31))
-          {
-            found |= YEAR_FOUND;
-            year = tempInt;
-          }
-          else if ((found & DAY_FOUND) == 0)
-          {
-            found |= DAY_FOUND;
-            day  = tempInt;
-          }
-        }
-        else
-        {
-          // It must be a month, now we must give a number to the month.
-          // Have we already seen a month?  We don't want to do this twice.
-          if ((found & MONTH_FOUND) == 0)
-          {
-            curToken = curToken.toLowerCase();
-            if (curToken.startsWith("jan"))
-            {
-              found |= MONTH_FOUND;
-              month = 0;
-            }
-            else if (curToken.startsWith("feb"))
-            {
-              found |= MONTH_FOUND;
-              month = 1;
-            }
-            else if (curToken.startsWith("mar"))
-            {
-              found |= MONTH_FOUND;
-              month = 2;
-            }
-            else if (curToken.startsWith("apr"))
-            {
-              found |= MONTH_FOUND;
-              month = 3;
-            }
-            else if (curToken.startsWith("may"))
-            {
-              found |= MONTH_FOUND;
-              month = 4;
-            }
-            else if (curToken.startsWith("jun"))
-            {
-              found |= MONTH_FOUND;
-              month = 5;
-            }
-            else if (curToken.startsWith("jul"))
-            {
-              found |= MONTH_FOUND;
-              month = 6;
-            }
-            else if (curToken.startsWith("aug"))
-            {
-              found |= MONTH_FOUND;
-              month = 7;
-            }
-            else if (curToken.startsWith("sep"))
-            {
-              found |= MONTH_FOUND;
-              month = 8;
-            }
-            else if (curToken.startsWith("oct"))
-            {
-              found |= MONTH_FOUND;
-              month = 9;
-            }
-            else if (curToken.startsWith("nov"))
-            {
-              found |= MONTH_FOUND;
-              month = 10;
-            }
-            else if (curToken.startsWith("dec"))
-            {
-              found |= MONTH_FOUND;
-              month = 11;
-            }
-//            else
-//              System.out.println("Invalid month: <" + curToken + ">");
-          }
-        }
-      }
-    }
-//    System.out.println("Date <" + date + "> resolved to day = " + day + ", month = " + month + ", year = " + year);
+  // For a date whose key has already been worked out, like one read back
+  // from the PersonStore
+  GedcomDate(String date, int key)
+  {
+    this.date = date;
+    this.key  = key;
   }
 
   public int compareTo(GedcomDate other)
   {
     if (other != null)
-    {
-      if (year != other.year)
-        return year - other.year;
-      if (month != other.month)
-        return month - other.month;
-      return day - other.day;
-    }
+      return key - other.key;     // Both keys are positive, so this can't overflow
     else
       return -1;  // null years always come after valid years
   }
 
+  // Returns the packed sort key, for tables that keep dates as ints
+  public int key()
+  {
+    return key;
+  }
+
   public boolean hasYear()
   {
-    if (year != UNUSED)
-      return true;
-    else
-      return false;
+    return hasYear(key);
   }
 
   public int getYear()
   {
-    if (year != UNUSED)
-      return year;
+    return getYear(key);
+  }
+
+  // The same for a packed key, or GedcomEvent.NO_DATE for no date
+  public static boolean hasYear(int key)
+  {
+    return (key != GedcomEvent.NO_DATE) && ((key >>> YEAR_SHIFT) != NO_YEAR);
+  }
+
+  public static int getYear(int key)
+  {
+    if (hasYear(key))
+      return key >>> YEAR_SHIFT;
     else
       return 0;
   }
@@ -200,36 +152,118 @@ class GedcomDate
     return (date != null) ? date : "???";
   }
 
-  private String getInt(String token)
+  // Prints how much memory the packed keys save for the given number of
+  // dates.
+  public static void printMemory(PrintStream out, long count)
   {
-    String ret = null;
-    char c[] = new char[4];
-    int  s,d;
+    out.println("Dates: " + count + ", packed keys saved " + (count * BYTES_SAVED) + " bytes");
+  }
 
-    s = d = 0;
+  //+-------------------------------------------------+
+  //| Internal routines                               |
+  //+-------------------------------------------------+
 
-    try
+  // Works out the sort key for a date in one pass over its characters.
+  // The date is split into words at spaces.  A word with digits in it is a
+  // year if it's bigger than 31 and there's no year yet, otherwise it's
+  // the day.  Only the first four digits count, and anything else in the
+  // word is skipped, so "12th" gives 12 and "(1850)" gives 1850.  Any
+  // other word is a month or a qualifier if its first three letters say
+  // so, and is ignored if they don't.
+  private static int parse(String date)
+  {
+    int  year      = NO_YEAR;
+    int  month     = NO_MONTH;
+    int  day       = NO_DAY;
+    int  qualifier = EXACT;
+    int  len       = (date != null) ? date.length() : 0;
+    int  i         = 0;
+    int  start;
+    int  number;
+    int  digits;
+    int  w;
+    int  m;
+    char c;
+
+    while (i < len)
     {
-      while ((d < 4) && (s < token.length()))
+      // Find the next word, getting the number in it as we go
+      while ((i < len) && isSpace(date.charAt(i)))
+        i++;
+      start  = i;
+      number = 0;
+      digits = 0;
+      while ((i < len) && !isSpace(c = date.charAt(i)))
       {
-        c[d] = token.charAt(s);
-        if ((c[d] >= '0') && (c[d] <= '9'))
+        if ((c >= '0') && (c <= '9') && (digits < 4))
         {
-          d++;
+          number = number * 10 + (c - '0');
+          digits++;
         }
-        s++;
+        i++;
       }
-    }
-    catch (StringIndexOutOfBoundsException e)
-    {
-      // Do nothing, this just means we reached the end of the string
-    }
 
-    if (d > 0)
-    {
-      ret = new String(c, 0, d);
+      if (digits > 0)
+      {
+        if ((year == NO_YEAR) && (number > 31))
+          year = number;
+        else if ((day == NO_DAY) && (number <= 31))
+          day = number;
+      }
+      else if (i - start >= 2)
+      {
+        w = (i - start >= 3) ? word(date, start) : -1;
+
+        if ((w == AND) ||
+            ((i - start == 2) && (lower(date.charAt(start)) == 't') && (lower(date.charAt(start + 1)) == 'o')))
+          break;    // The end of a range
+
+        if (month == NO_MONTH)
+          for (m = 0; m < months.length; m++)
+            if (w == months[m])
+              month = m;
+
+        if (w == BEF)
+          qualifier = BEFORE;
+        else if (w == AFT)
+          qualifier = AFTER;
+        else if ((w == ABT) || (w == ABO) || (w == EST) || (w == CAL))
+          qualifier = ABOUT;
+        else if ((w == BET) || (w == FRO))
+          qualifier = RANGE;
+      }
+
+      if ((year != NO_YEAR) && (month != NO_MONTH) && (day != NO_DAY))
+        break;
     }
 
-    return ret;
+    return (year << YEAR_SHIFT) | (month << MONTH_SHIFT) | (day << DAY_SHIFT) | qualifier;
+  }
+
+  // Packs the first three letters of a word, in lower case, into an int
+  private static int word(String s, int start)
+  {
+    return (lower(s.charAt(start)) << 16) | (lower(s.charAt(start + 1)) << 8) | lower(s.charAt(start + 2));
+  }
+
+  private static int word(String s)
+  {
+    return word(s, 0);
+  }
+
+  // Lower cases ASCII letters.  Anything that isn't ASCII becomes a value
+  // that's in no word.
+  private static int lower(char c)
+  {
+    if (c >= 0x80)
+      return 0xFF;
+    if ((c >= 'A') && (c <= 'Z'))
+      return c + ('a' - 'A');
+    return c;
+  }
+
+  private static boolean isSpace(char c)
+  {
+    return (c == ' ') || (c == '\n') || (c == '\t') || (c == '\r');
   }
 }
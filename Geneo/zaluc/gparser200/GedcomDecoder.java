@@ -0,0 +1,396 @@
+package zaluc.gparser200;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.text.Normalizer;
+
+import zaluc.utils.*;
+
+//+-- Class GedcomDecoder ----------------------------------------------------+
+//|                                                                           |
+//| Syntax:       class GedcomDecoder                                         |
+//|                                                                           |
+//| Description:  The GedcomDecoder class works out which character set a     |
+//|               gedcom file is written in, and turns the bytes of a value   |
+//|               into a String in that character set.                        |
+//|                                                                           |
+//|               The character set is found by open, which looks at the      |
+//|               start of the file before the scanner sees it.  A byte order |
+//|               mark wins.  Without one, a UTF-16 file is recognized by the |
+//|               zero bytes around the "0" of its first line.  Otherwise the |
+//|               "1 CHAR" line of the header is used, and if there isn't    |
+//|               one, the platform's default character set, which is what    |
+//|               FileReader used.                                            |
+//|                                                                           |
+//|               The scanner only looks for ASCII bytes like line ends and   |
+//|               spaces, so it works on anything but UTF-16 as it is.  A     |
+//|               UTF-16 file is turned into UTF-8 as it is read, see         |
+//|               zaluc.utils.Utf16InputStream.                               |
+//|                                                                           |
+//|               Most values are plain ASCII, so decode copies bytes to      |
+//|               chars until it finds one that isn't.  Only then does it     |
+//|               fall back to the full decoder for the character set.  UTF-8 |
+//|               and ANSEL are decoded here, ANSEL through a table.  The     |
+//|               others are handed to a Charset.                             |
+//|                                                                           |
+//|               A decoder reuses a char buffer, so each thread needs its    |
+//|               own.                                                        |
+//|                                                                           |
+//| Methods:      public InputStream open   (InputStream source)              |
+//|               public String      decode (byte buf[], int start, int end)  |
+//|               public String      name   ()                                |
+//|               public int         encoding ()                              |
+//|                                                                           |
+//|---------------------------------------------------------------------------+
+
+class GedcomDecoder
+{
+  // Character sets
+  public static final int PLATFORM = 0;
+  public static final int ASCII    = 1;
+  public static final int ANSI     = 2;
+  public static final int IBMPC    = 3;
+  public static final int ANSEL    = 4;
+  public static final int UTF8     = 5;
+  public static final int UTF16BE  = 6;
+  public static final int UTF16LE  = 7;
+
+  private static final String names[] =
+  {
+    "platform default", "ASCII", "ANSI", "IBMPC", "ANSEL", "UTF-8",
+    "UNICODE (big endian)", "UNICODE (little endian)"
+  };
+
+  private static final int  HEADER_SIZE = 8192;   // How much of the file open looks at
+  private static final char REPLACEMENT = '\uFFFD';
+
+  // The Unicode character for each ANSEL byte from 0xA0 up.  The bytes
+  // from 0xE0 up are combining marks, which come before the letter they
+  // go with in ANSEL but after it in Unicode.
+  private static final char anselChars[] =
+  {
+    /* A0 */ REPLACEMENT, '\u0141', '\u00D8', '\u0110', '\u00DE', '\u00C6', '\u0152', '\u02B9',
+    /* A8 */ '\u00B7',    '\u266D', '\u00AE', '\u00B1', '\u01A0', '\u01AF', '\u02BC', REPLACEMENT,
+    /* B0 */ '\u02BB',    '\u0142', '\u00F8', '\u0111', '\u00FE', '\u00E6', '\u0153', '\u02BA',
+    /* B8 */ '\u0131',    '\u00A3', '\u00F0', REPLACEMENT, '\u01A1', '\u01B0', REPLACEMENT, REPLACEMENT,
+    /* C0 */ '\u00B0',    '\u2113', '\u2117', '\u00A9', '\u266F', '\u00BF', '\u00A1', '\u00DF',
+    /* C8 */ '\u20AC',    REPLACEMENT, REPLACEMENT, REPLACEMENT, REPLACEMENT, REPLACEMENT, REPLACEMENT, '\u00DF',
+    /* D0 */ REPLACEMENT, REPLACEMENT, REPLACEMENT, REPLACEMENT, REPLACEMENT, REPLACEMENT, REPLACEMENT, REPLACEMENT,
+    /* D8 */ REPLACEMENT, REPLACEMENT, REPLACEMENT, REPLACEMENT, REPLACEMENT, REPLACEMENT, REPLACEMENT, REPLACEMENT,
+    /* E0 */ '\u0309',    '\u0300', '\u0301', '\u0302', '\u0303', '\u0304', '\u0306', '\u0307',
+    /* E8 */ '\u0308',    '\u030C', '\u030A', '\uFE20', '\uFE21', '\u0315', '\u030B', '\u0310',
+    /* F0 */ '\u0327',    '\u0328', '\u0323', '\u0324', '\u0325', '\u0333', '\u0332', '\u0326',
+    /* F8 */ '\u031C',    '\u032E', '\uFE22', '\uFE23', REPLACEMENT, REPLACEMENT, '\u0313', REPLACEMENT
+  };
+
+  private int     encoding;
+  private Charset charset;             // For the character sets decoded by a Charset
+  private char    chars[] = new char[256];
+  private char    marks[] = new char[8];   // ANSEL combining marks waiting for their letter
+
+  public GedcomDecoder ()
+  {
+    this (PLATFORM);
+  }
+
+  public GedcomDecoder (int encoding)
+  {
+    setEncoding (encoding);
+  }
+
+  //+-------------------------------------------------+
+  //| Finding the character set                       |
+  //+-------------------------------------------------+
+
+  // Looks at the start of the file to find its character set, and returns
+  // a stream of the file that the scanner can read:  without the byte
+  // order mark, and turned into UTF-8 if it's UTF-16.
+  public InputStream open (InputStream source) throws IOException
+  {
+    PushbackInputStream in   = new PushbackInputStream (source, HEADER_SIZE);
+    byte                head[] = new byte[HEADER_SIZE];
+    int                 len  = 0;
+    int                 skip;
+    int                 count;
+
+    while ((len < HEADER_SIZE) && ((count = in.read (head, len, HEADER_SIZE - len)) >= 0))
+      len += count;
+
+    skip = detect (head, len);
+    in.unread (head, skip, len - skip);
+
+    if (encoding == UTF16BE)
+      return new Utf16InputStream (in, true);
+    if (encoding == UTF16LE)
+      return new Utf16InputStream (in, false);
+    return in;
+  }
+
+  public String name ()
+  {
+    return names[encoding];
+  }
+
+  public int encoding ()
+  {
+    return encoding;
+  }
+
+  // Sets the character set from the start of the file, and returns the
+  // length of the byte order mark, if there is one.
+  private int detect (byte head[], int len)
+  {
+    if ((len >= 3) && ((head[0] & 0xFF) == 0xEF) && ((head[1] & 0xFF) == 0xBB) && ((head[2] & 0xFF) == 0xBF))
+    {
+      setEncoding (UTF8);
+      return 3;
+    }
+    if ((len >= 2) && ((head[0] & 0xFF) == 0xFE) && ((head[1] & 0xFF) == 0xFF))
+    {
+      setEncoding (UTF16BE);
+      return 2;
+    }
+    if ((len >= 2) && ((head[0] & 0xFF) == 0xFF) && ((head[1] & 0xFF) == 0xFE))
+    {
+      setEncoding (UTF16LE);
+      return 2;
+    }
+    if ((len >= 2) && (head[0] == 0) && (head[1] == '0'))
+      setEncoding (UTF16BE);
+    else if ((len >= 2) && (head[0] == '0') && (head[1] == 0))
+      setEncoding (UTF16LE);
+    else
+      setEncoding (charTag (head, len));
+
+    return 0;
+  }
+
+  // Finds the "1 CHAR" line in the header and returns the character set
+  // it names, or PLATFORM if there isn't one.
+  private static int charTag (byte head[], int len)
+  {
+    int pos = 0;
+    int lineEnd;
+    int i;
+
+    while (pos < len)
+    {
+      lineEnd = pos;
+      while ((lineEnd < len) && (head[lineEnd] != '\n') && (head[lineEnd] != '\r'))
+        lineEnd++;
+
+      i = pos;
+      while ((i < lineEnd) && isSpace (head[i]))
+        i++;
+
+      // The header ends at the first level 0 line after "0 HEAD"
+      if ((i < lineEnd) && (head[i] == '0') && (pos > 0))
+        break;
+
+      if (startsWith (head, i, lineEnd, "1 CHAR "))
+      {
+        i += 7;
+        while ((i < lineEnd) && isSpace (head[i]))
+          i++;
+
+        if (startsWith (head, i, lineEnd, "ANSEL"))
+          return ANSEL;
+        if (startsWith (head, i, lineEnd, "UTF-8") || startsWith (head, i, lineEnd, "UTF8"))
+          return UTF8;
+        if (startsWith (head, i, lineEnd, "ANSI"))
+          return ANSI;
+        if (startsWith (head, i, lineEnd, "ASCII"))
+          return ASCII;
+        if (startsWith (head, i, lineEnd, "IBMPC"))
+          return IBMPC;
+        return PLATFORM;
+      }
+
+      pos = lineEnd + 1;
+    }
+
+    return PLATFORM;
+  }
+
+  private void setEncoding (int encoding)
+  {
+    this.encoding = encoding;
+
+    switch (encoding)
+    {
+      case ASCII:     // Files marked ASCII often hold ANSI characters
+      case ANSI:
+        charset = charsetFor ("windows-1252");
+        break;
+      case IBMPC:
+        charset = charsetFor ("IBM437");
+        break;
+      default:
+        charset = Charset.defaultCharset();
+    }
+  }
+
+  private static Charset charsetFor (String name)
+  {
+    try
+    {
+      return Charset.forName (name);
+    }
+    catch (IllegalArgumentException e)
+    {
+      return Charset.forName ("ISO-8859-1");
+    }
+  }
+
+  //+-------------------------------------------------+
+  //| Decoding                                        |
+  //+-------------------------------------------------+
+
+  // Returns the String for the bytes in buf[start..end)
+  public String decode (byte buf[], int start, int end)
+  {
+    int len = end - start;
+    int i;
+    int n;
+
+    if (chars.length < len)
+      chars = new char[Math.max (len, chars.length * 2)];
+
+    // The fast path, for plain ASCII
+    for (i = start, n = 0; (i < end) && (buf[i] >= 0); i++)
+      chars[n++] = (char) buf[i];
+    if (i == end)
+      return new String (chars, 0, n);
+
+    switch (encoding)
+    {
+      case UTF8:
+      case UTF16BE:    // These have been turned into UTF-8
+      case UTF16LE:
+        return decodeUtf8 (buf, i, end, n);
+      case ANSEL:
+        return decodeAnsel (buf, i, end, n);
+      default:
+        return new String (buf, start, len, charset);
+    }
+  }
+
+  // Decodes the rest of a UTF-8 value, starting at buf[i] with n chars
+  // already done.  Bad sequences come out as U+FFFD.
+  private String decodeUtf8 (byte buf[], int i, int end, int n)
+  {
+    int b, c, need, min;
+
+    while (i < end)
+    {
+      b = buf[i++] & 0xFF;
+      if (b < 0x80)
+      {
+        chars[n++] = (char) b;
+        continue;
+      }
+
+      if ((b & 0xE0) == 0xC0)
+      {
+        c = b & 0x1F;  need = 1;  min = 0x80;
+      }
+      else if ((b & 0xF0) == 0xE0)
+      {
+        c = b & 0x0F;  need = 2;  min = 0x800;
+      }
+      else if ((b & 0xF8) == 0xF0)
+      {
+        c = b & 0x07;  need = 3;  min = 0x10000;
+      }
+      else
+      {
+        chars[n++] = REPLACEMENT;
+        continue;
+      }
+
+      while ((need > 0) && (i < end) && ((buf[i] & 0xC0) == 0x80))
+      {
+        c = (c << 6) | (buf[i++] & 0x3F);
+        need--;
+      }
+
+      if ((need > 0) || (c < min) || (c > 0x10FFFF) || ((c >= 0xD800) && (c <= 0xDFFF)))
+        chars[n++] = REPLACEMENT;
+      else if (c < 0x10000)
+        chars[n++] = (char) c;
+      else
+      {
+        // Four bytes make two chars, so this still fits
+        chars[n++] = (char) (0xD800 + ((c - 0x10000) >> 10));
+        chars[n++] = (char) (0xDC00 + ((c - 0x10000) & 0x3FF));
+      }
+    }
+
+    return new String (chars, 0, n);
+  }
+
+  // Decodes the rest of an ANSEL value, starting at buf[i] with n chars
+  // already done.  A combining mark is held until the letter after it has
+  // been put out, and the result is put in composed form, so that an
+  // ANSEL "e" with an acute accent becomes the single character U+00E9.
+  private String decodeAnsel (byte buf[], int i, int end, int n)
+  {
+    boolean combined = false;
+    int     markCount = 0;
+    int     b;
+    int     j;
+
+    while (i < end)
+    {
+      b = buf[i++] & 0xFF;
+
+      if (b >= 0xE0)
+      {
+        if (markCount < marks.length)
+          marks[markCount++] = anselChars[b - 0xA0];
+        continue;
+      }
+
+      if (b < 0x80)
+        chars[n++] = (char) b;
+      else if (b >= 0xA0)
+        chars[n++] = anselChars[b - 0xA0];
+      else
+        chars[n++] = REPLACEMENT;
+
+      for (j = 0; j < markCount; j++)
+        chars[n++] = marks[j];
+      if (markCount > 0)
+        combined = true;
+      markCount = 0;
+    }
+
+    // Marks at the very end have no letter to go with
+    for (j = 0; j < markCount; j++)
+      chars[n++] = marks[j];
+
+    if (combined)
+      return Normalizer.normalize (new String (chars, 0, n), Normalizer.Form.NFC);
+    else
+      return new String (chars, 0, n);
+  }
+
+  private static boolean startsWith (byte buf[], int start, int end, String prefix)
+  {
+    int i;
+
+    if (end - start < prefix.length())
+      return false;
+
+    for (i = 0; i < prefix.length(); i++)
+      if (buf[start + i] != prefix.charAt(i))
+        return false;
+
+    return true;
+  }
+
+  private static boolean isSpace (byte b)
+  {
+    return (b == ' ') || (b == '\t') || (b == '\f');
+  }
+}
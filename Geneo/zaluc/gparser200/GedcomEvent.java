@@ -17,57 +17,35 @@ import zaluc.utils.*;
 
 //+-- Class GedcomEvent ------------------------------------------------------+
 //|                                                                           |
-//| Syntax:       class GedcomEvent implements SortableObject                 |
+//| Syntax:       class GedcomEvent                                           |
 //|                                                                           |
 //| Description:  A GedcomEvent contains the information for an event from    |
-//|               the gedcom file.  GedcomEvent's are sorted by date.         |
+//|               the gedcom file.                                            |
+//|                                                                           |
+//|               A GedcomEvent can't be changed once it's made, so one event |
+//|               can be shared, like a marriage, which is kept once by the   |
+//|               family and shown for both spouses.                          |
 //|                                                                           |
 //| Methods:                                                                  |
 //|                                                                           |
 //|---------------------------------------------------------------------------+
 
-class GedcomEvent implements SortableObject
+class GedcomEvent
 {
-  public SortableHandle listHandle = new SortableHandle (this);
+  private final String     type;
+  private final String     value;
+  private final GedcomDate date;
+  private final int        place;        // ID in Parser.placeTable
 
-  private String         type;
-  private String         value;
-  private GedcomDate     date;
-  private String         place;
+  public static final int NO_DATE = Integer.MAX_VALUE;   // Sorts after every date key
 
-  public GedcomEvent()
-  {
-  }
-
-  public GedcomEvent(GedcomEvent source)
-  {
-    if (source.type != null)
-      type  = new String(source.type);
-    if (source.value != null)
-      value = new String(source.value);
-    if (source.date != null)
-      date  = new GedcomDate(source.date);
-    if (source.place != null)
-      place = new String(source.place);
-  }
-
-  public void setValue(String value)
+  // Any of the parts may be null, and place may be PlaceTable.NONE.  The
+  // date may be shared with other events, see ValueCache.
+  public GedcomEvent(String type, String value, GedcomDate date, int place)
   {
+    this.type  = type;
     this.value = value;
-  }
-
-  public void setType(String type)
-  {
-    this.type = type;
-  }
-
-  public void setDate(String date)
-  {
-    this.date = new GedcomDate(date);
-  }
-
-  public void setPlace(String place)
-  {
+    this.date  = date;
     this.place = place;
   }
 
@@ -89,6 +67,16 @@ class GedcomEvent implements SortableObject
       return null;
   }
 
+  // Returns the sort key of the date, or NO_DATE if there isn't one.
+  // Comparing keys gives the same order as GedcomDate.compareTo.
+  public int getDateKey()
+  {
+    if (date != null)
+      return date.key();
+    else
+      return NO_DATE;
+  }
+
   public boolean hasYear()
   {
     if (date != null)
@@ -107,55 +95,78 @@ class GedcomEvent implements SortableObject
 
   public String getPlace()
   {
-    return place;
+    return Parser.placeTable.name(place);
   }
 
-  public int compareTo (SortableObject soOther, int compareToken)
+  public int getPlaceId()
   {
-    GedcomEvent other = (GedcomEvent) soOther;
+    return place;
+  }
 
-    if (date != null)
-    {
-      if (other != null)
-        return date.compareTo(other.date);
-      else
-        return -1;
-    }
+  // Returns the same event with its place ID translated by placeMap, for
+  // an event parsed with a worker thread's place table, see
+  // PeopleList.merge.
+  public GedcomEvent movePlace(int placeMap[])
+  {
+    if (place == PlaceTable.NONE)
+      return this;
     else
-      if (other.date != null)
-        return -1;    // null dates after real dates
-      else
-        return 0;    // both dates are null
+      return new GedcomEvent(type, value, date, placeMap[place]);
   }
 
   public String toString()
   {
-    String ret = "";
+    StringBuffer buf = new StringBuffer();
+
+    if (appendTo (buf))
+      return buf.toString();
+    else
+      return null;
+  }
+
+  // Adds the event to the end of buf, the way toString shows it, like
+  // "Birth: ABT 1850, Springfield, Illinois".  Returns false, having added
+  // nothing, if there is nothing to show.
+  public boolean appendTo(StringBuffer buf)
+  {
+    return appendTo(buf, type, value, getDate(), getPlace());
+  }
+
+  // Like appendTo, but shows the given value in place of the event's own.
+  // A marriage is shown this way, with the name of the other spouse.
+  public boolean appendTo(StringBuffer buf, String value)
+  {
+    return appendTo(buf, type, value, getDate(), getPlace());
+  }
+
+  // Adds an event made of the given parts, any of which may be null, to
+  // the end of buf.  This is how every event is shown, whether it's held
+  // as a GedcomEvent or in an EventArena.
+  static boolean appendTo(StringBuffer buf, String type, String value, String date, String place)
+  {
+    int start = buf.length();
 
+    if (type != null)
+    {
+      buf.append(type);
+      if ((value != null) || (date != null) || (place != null))
+        buf.append(": ");
+    }
     if (value != null)
-      ret += value;
+      buf.append(value);
     if (date != null)
     {
       if (value != null)
-        ret += ", ";
-      ret += getDate();
+        buf.append(", ");
+      buf.append(date);
     }
     if (place != null)
     {
       if ((value != null) || (date != null))
-        ret += ", ";
-      ret += place;
-    }
-    if (type != null)
-    {
-      if ((value != null) || (date != null) || (place != null))
-        ret = type + ": " + ret;
-      else
-        ret = type;
+        buf.append(", ");
+      buf.append(place);
     }
-    if (ret.length() == 0)
-      ret = null;
 
-    return ret;
+    return buf.length() > start;
   }
 }
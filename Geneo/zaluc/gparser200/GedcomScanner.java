@@ -0,0 +1,504 @@
+package zaluc.gparser200;
+
+import java.io.*;
+
+//+-- Class GedcomScanner ----------------------------------------------------+
+//|                                                                           |
+//| Syntax:       class GedcomScanner                                         |
+//|                                                                           |
+//| Description:  The GedcomScanner class splits a gedcom file into lines     |
+//|               and each line into its level, xref, tag and value.  It     |
+//|               works directly on the raw bytes of the file.  The bytes are |
+//|               read into a single buffer that is reused for every line,    |
+//|               and the parts of the current line are kept as offsets into  |
+//|               that buffer.  A String is only created when the caller asks |
+//|               for the value of a line, which it only does when the value  |
+//|               is going to be stored.  The tag is also looked up in        |
+//|               GedcomTags, so handlers can switch on its code.             |
+//|                                                                           |
+//|               The value is turned into a String by a GedcomDecoder, in    |
+//|               the character set the file was found to use.  The source   |
+//|               should come from GedcomDecoder.open, which takes care of    |
+//|               byte order marks and UTF-16.                                |
+//|                                                                           |
+//|               The lines can also come from a LineReader, which finds     |
+//|               them on a thread of its own.  The scanner then works on    |
+//|               the LineReader's batches instead of its own buffer.         |
+//|                                                                           |
+//| Methods:      public boolean next            ()                           |
+//|               public boolean skipSubtree     ()                           |
+//|               public boolean atEnd           ()                           |
+//|               public void    error           (int category)               |
+//|               public boolean tagIs           (String tag)                 |
+//|               public boolean tagStartsWith   (String prefix)              |
+//|               public boolean xrefStartsWith  (String prefix)              |
+//|               public boolean valueStartsWith (String prefix)              |
+//|               public String  value           ()                           |
+//|               public String  textValue       ()                           |
+//|               public Object  cachedValue     (ValueCache cache)           |
+//|               public void    cacheValue      (ValueCache cache,           |
+//|                                               Object     value)           |
+//|               public int     internXref      (XrefMap map)                |
+//|               public int     internValueXref (XrefMap map)                |
+//|               public int     xrefDigits      ()                           |
+//|               public String  tagText         ()                           |
+//|               public String  lineText        ()                           |
+//|                                                                           |
+//|---------------------------------------------------------------------------+
+
+class GedcomScanner
+{
+  private static final int DEFAULT_BUFFER_SIZE = 65536;
+
+  private InputStream source;
+  private LineReader  lineReader = null;   // Where the lines come from, if not from source
+  private LineReader.Batch batch = null;   // The lineReader batch being scanned
+  private int         batchLine  = 0;      // Next line in batch
+  private GedcomDecoder decoder;
+  private byte        buf[];
+  private int         bufLen = 0;       // Number of valid bytes in buf
+  private int         pos    = 0;       // Start of the next unread line
+  private boolean     eof    = false;   // No more bytes in the source
+  private boolean     atEnd  = false;   // No more lines
+
+  public  int         level   = 0;      // Level of the current line
+  public  int         tag     = GedcomTags.UNKNOWN;  // Code for the tag of the current line
+  public  int         lineNum = 0;      // Used in error reporting and statistics
+  public  ParseErrors errors  = new ParseErrors();  // Problems found in the file
+
+  // Offsets into buf for the parts of the current line.  The end offsets
+  // are exclusive.
+  private int         lineStart,  lineEnd;
+  private int         xrefStart,  xrefEnd;
+  private int         tagStart,   tagEnd;
+  private int         valueStart, valueEnd;
+
+  public GedcomScanner(InputStream source)
+  {
+    this(source, new GedcomDecoder());
+  }
+
+  public GedcomScanner(InputStream source, GedcomDecoder decoder)
+  {
+    this(source, decoder, DEFAULT_BUFFER_SIZE);
+  }
+
+  public GedcomScanner(InputStream source, GedcomDecoder decoder, int bufferSize)
+  {
+    this.source  = source;
+    this.decoder = decoder;
+    this.buf     = new byte[bufferSize];
+  }
+
+  public GedcomScanner(LineReader lineReader, GedcomDecoder decoder)
+  {
+    this.lineReader = lineReader;
+    this.decoder    = decoder;
+    this.buf        = new byte[0];
+  }
+
+  //+--------------------------------------------------+
+  //| Routines for moving through the lines of a file  |
+  //+--------------------------------------------------+
+
+  // Moves to the next line that has a valid level.  Blank lines and lines
+  // that don't start with a number are skipped, and the latter are noted
+  // in errors.  Returns false, and sets
+  // the level to 0, when the end of the file is reached.
+  public boolean next() throws IOException
+  {
+    int prevLevel = atEnd ? 0 : level;
+
+    while (readLine())
+    {
+      if (splitLine())
+      {
+        if (level > prevLevel + 1)
+          error(ParseErrors.LEVEL_JUMP);
+        return true;
+      }
+    }
+
+    return endOfFile();
+  }
+
+  // Moves past the current line and everything under it, to the next line
+  // whose level is no deeper than the current line's.  The lines in between
+  // are only looked at as far as their level number.  They aren't split up
+  // and their tags aren't looked up.  Returns false, like next, at the end
+  // of the file.
+  public boolean skipSubtree() throws IOException
+  {
+    int top = atEnd ? 0 : level;
+    int lineLevel;
+
+    while (readLine())
+    {
+      lineLevel = peekLevel();
+      if (((lineLevel <= top) || (lineLevel < 0)) && splitLine())
+        return true;
+    }
+
+    return endOfFile();
+  }
+
+  public boolean atEnd()
+  {
+    return atEnd;
+  }
+
+  public void close() throws IOException
+  {
+    if (lineReader != null)
+      lineReader.close();
+    else
+      source.close();
+  }
+
+  // Notes a problem with the current line
+  public void error(int category)
+  {
+    errors.add(category, lineNum, errors.full() ? null : lineText());
+  }
+
+  //+-------------------------------------------------+
+  //| Routines for examining the parts of a line      |
+  //+-------------------------------------------------+
+
+  public boolean tagIs(String tag)
+  {
+    return (tag.length() == tagEnd - tagStart) && startsWith(tagStart, tagEnd, tag);
+  }
+
+  public boolean tagStartsWith(String prefix)
+  {
+    return startsWith(tagStart, tagEnd, prefix);
+  }
+
+  public boolean xrefStartsWith(String prefix)
+  {
+    return startsWith(xrefStart, xrefEnd, prefix);
+  }
+
+  public boolean valueStartsWith(String prefix)
+  {
+    return startsWith(valueStart, valueEnd, prefix);
+  }
+
+  public boolean hasValue()
+  {
+    return valueEnd > valueStart;
+  }
+
+  // Returns the value of the line, i.e. everything after the tag, or null
+  // if the line has no value.  This is the only place where a String is
+  // created for the contents of a line.
+  public String value()
+  {
+    if (valueEnd > valueStart)
+      return decoder.decode(buf, valueStart, valueEnd);
+    else
+      return null;
+  }
+
+  // Returns the value of the line just as it is in the file, with only the
+  // one space after the tag taken off, or null if there is nothing after
+  // it.  Used for the text of notes, where the spaces at the start and end
+  // of a CONC line are part of the text.
+  public String textValue()
+  {
+    int start = tagEnd;
+
+    if ((start < lineEnd) && isSpace(buf[start]))
+      start++;
+
+    if (lineEnd > start)
+      return decoder.decode(buf, start, lineEnd);
+    else
+      return null;
+  }
+
+  // Returns what was made from this line's value the last time the same
+  // value was seen, or null if it isn't in the cache.
+  public Object cachedValue(ValueCache cache)
+  {
+    return cache.lookup(buf, valueStart, valueEnd);
+  }
+
+  // Remembers what was made from this line's value, see cachedValue
+  public void cacheValue(ValueCache cache, Object value)
+  {
+    cache.add(buf, valueStart, valueEnd, value);
+  }
+
+  // Returns the index of the line's xref in the map, adding it if it's
+  // new, or -1 if the line has no xref.
+  public int internXref(XrefMap map)
+  {
+    if (xrefEnd == xrefStart)
+      return -1;
+    return map.intern(buf, xrefStart, xrefEnd);
+  }
+
+  // Returns the index in the map of an xref value like @F12@, adding it if
+  // it's new, or -1 if the value isn't an xref.
+  public int internValueXref(XrefMap map)
+  {
+    int end = valueStart;
+
+    if ((valueEnd == valueStart) || (buf[valueStart] != '@'))
+      return -1;
+
+    while ((end < valueEnd) && !isSpace(buf[end]))
+      end++;
+
+    return map.intern(buf, valueStart, end);
+  }
+
+  // Returns the number made of the digits in the line's xref, so @I123@,
+  // @P123a@ and @INDI_123@ all give 123.  Returns -1 if there are no
+  // digits.
+  public int xrefDigits()
+  {
+    int ret    = 0;
+    int digits = 0;
+    int i;
+
+    for (i = xrefStart; (i < xrefEnd) && (digits < 9); i++)
+    {
+      if ((buf[i] >= '0') && (buf[i] <= '9'))
+      {
+        ret = ret * 10 + (buf[i] - '0');
+        digits++;
+      }
+    }
+
+    return (digits > 0) ? ret : -1;
+  }
+
+  // Returns the tag of the line as a String.  Used in error reporting and
+  // benchmarks only.
+  public String tagText()
+  {
+    return decoder.decode(buf, tagStart, tagEnd);
+  }
+
+  // Returns the text of the whole line.  Used in error reporting only.
+  public String lineText()
+  {
+    if (atEnd)
+      return null;
+    return decoder.decode(buf, lineStart, lineEnd);
+  }
+
+  //+-------------------------------------------------+
+  //| Internal routines                               |
+  //+-------------------------------------------------+
+
+  private boolean endOfFile()
+  {
+    atEnd = true;
+    level = 0;
+    tag   = GedcomTags.UNKNOWN;
+    lineStart = lineEnd = xrefStart = xrefEnd = tagStart = tagEnd = valueStart = valueEnd = 0;
+    return false;
+  }
+
+  // Returns the level number at the start of the current line, or -1 if
+  // there isn't a valid one.
+  private int peekLevel()
+  {
+    int i   = lineStart;
+    int end = lineEnd;
+    int start;
+    int ret = 0;
+
+    while ((i < end) && isSpace(buf[i]))
+      i++;
+
+    start = i;
+    while ((i < end) && (buf[i] >= '0') && (buf[i] <= '9'))
+      ret = ret * 10 + (buf[i++] - '0');
+
+    if ((i == start) || (i - start > 9) || ((i < end) && !isSpace(buf[i])))
+      return -1;
+
+    return ret;
+  }
+
+  // Finds the next line in the buffer, refilling the buffer from the
+  // source as necessary.  A line ends with LF, CR or CR LF.
+  private boolean readLine() throws IOException
+  {
+    int i = pos;
+
+    if (lineReader != null)
+      return readBatchLine();
+
+    while (true)
+    {
+      while ((i < bufLen) && (buf[i] != '\n') && (buf[i] != '\r'))
+        i++;
+
+      // A CR at the very end of the buffer might be followed by a LF that
+      // hasn't been read yet, so it doesn't count as a complete line.
+      if ((i < bufLen - 1) || ((i < bufLen) && (buf[i] == '\n')) || eof)
+        break;
+
+      i -= pos;
+      fill();
+      i += pos;
+    }
+
+    if (i == bufLen)
+    {
+      if (pos == bufLen)
+        return false;    // Nothing left at all
+
+      // The last line of the file has no terminator
+      lineStart = pos;
+      lineEnd   = bufLen;
+      pos       = bufLen;
+    }
+    else
+    {
+      lineStart = pos;
+      lineEnd   = i;
+      if ((buf[i] == '\r') && (i + 1 < bufLen) && (buf[i + 1] == '\n'))
+        pos = i + 2;
+      else
+        pos = i + 1;
+    }
+
+    lineNum++;
+    return true;
+  }
+
+  // Moves to the next line in the current LineReader batch, taking the
+  // next batch when this one is used up.  A batch is given back as soon as
+  // the scanner moves past its last line, so a batch is never read after
+  // it has been given back.
+  private boolean readBatchLine() throws IOException
+  {
+    while ((batch == null) || (batchLine == batch.count))
+    {
+      if (batch != null)
+        lineReader.release(batch);
+      if ((batch = lineReader.take()) == null)
+        return false;
+      buf       = batch.data;
+      batchLine = 0;
+    }
+
+    lineStart = batch.starts[batchLine];
+    lineEnd   = batch.ends[batchLine];
+    batchLine++;
+    lineNum++;
+    return true;
+  }
+
+  // Moves the unread part of the buffer to the front, growing the buffer
+  // if a single line fills it, and reads more bytes from the source.
+  private void fill() throws IOException
+  {
+    int count;
+
+    if (pos > 0)
+    {
+      System.arraycopy(buf, pos, buf, 0, bufLen - pos);
+      bufLen -= pos;
+      pos = 0;
+    }
+
+    if (bufLen == buf.length)
+    {
+      byte newBuf[] = new byte[buf.length * 2];
+      System.arraycopy(buf, 0, newBuf, 0, bufLen);
+      buf = newBuf;
+    }
+
+    count = source.read(buf, bufLen, buf.length - bufLen);
+    if (count < 0)
+      eof = true;
+    else
+      bufLen += count;
+  }
+
+  // Breaks the current line into level, xref, tag and value.  Returns
+  // false if the line is blank or doesn't start with a level number.
+  private boolean splitLine()
+  {
+    int i   = lineStart;
+    int end = lineEnd;
+    int start;
+    int newLevel = 0;
+
+    while ((i < end) && isSpace(buf[i]))
+      i++;
+
+    if (i == end)
+      return false;     // A blank line
+
+    start = i;
+    while ((i < end) && (buf[i] >= '0') && (buf[i] <= '9'))
+      newLevel = newLevel * 10 + (buf[i++] - '0');
+
+    if ((i == start) || (i - start > 9) || ((i < end) && !isSpace(buf[i])))
+    {
+      errors.add(ParseErrors.BAD_LINE, lineNum,
+                 errors.full() ? null : decoder.decode(buf, lineStart, lineEnd));
+      return false;
+    }
+
+    level = newLevel;
+
+    while ((i < end) && isSpace(buf[i]))
+      i++;
+
+    xrefStart = xrefEnd = i;
+    if ((i < end) && (buf[i] == '@'))
+    {
+      while ((i < end) && !isSpace(buf[i]))
+        i++;
+      xrefEnd = i;
+      while ((i < end) && isSpace(buf[i]))
+        i++;
+    }
+
+    tagStart = i;
+    while ((i < end) && !isSpace(buf[i]))
+      i++;
+    tagEnd = i;
+    tag    = GedcomTags.lookup(buf, tagStart, tagEnd);
+
+    while ((i < end) && isSpace(buf[i]))
+      i++;
+
+    valueStart = i;
+    valueEnd   = end;
+    while ((valueEnd > valueStart) && isSpace(buf[valueEnd - 1]))
+      valueEnd--;
+
+    return true;
+  }
+
+  private boolean startsWith(int start, int end, String prefix)
+  {
+    int len = prefix.length();
+    int i;
+
+    if (end - start < len)
+      return false;
+
+    for (i = 0; i < len; i++)
+      if (buf[start + i] != prefix.charAt(i))
+        return false;
+
+    return true;
+  }
+
+  private static boolean isSpace(byte b)
+  {
+    return (b == ' ') || (b == '\t') || (b == '\f');
+  }
+}
@@ -0,0 +1,174 @@
+package zaluc.gparser200;
+
+//+-- Class GedcomTags -------------------------------------------------------+
+//|                                                                           |
+//| Syntax:       class GedcomTags                                            |
+//|                                                                           |
+//| Description:  The GedcomTags class gives each gedcom tag the parser       |
+//|               knows about an int code, so that the handlers can switch on |
+//|               the code instead of comparing the tag against a list of     |
+//|               Strings.  The GedcomScanner looks up the code once for each |
+//|               line.                                                       |
+//|                                                                           |
+//|               The lookup is a perfect hash:  when the class is loaded, a  |
+//|               table size and hash multiplier are picked so that no two    |
+//|               known tags land in the same slot.  A lookup is then a hash  |
+//|               of the tag bytes and one compare against the tag in that    |
+//|               slot.  Tags that aren't in the table get the code UNKNOWN.  |
+//|                                                                           |
+//|               To support a new tag, add a code for it below and add it to |
+//|               the names table.                                            |
+//|                                                                           |
+//| Methods:      public static int    lookup (byte buf[], int start,         |
+//|                                            int  end)                      |
+//|               public static int    lookup (String tag)                    |
+//|               public static String name   (int code)                      |
+//|                                                                           |
+//|---------------------------------------------------------------------------+
+
+class GedcomTags
+{
+  // Tag codes
+  public static final int UNKNOWN =  0;
+  public static final int HEAD    =  1;
+  public static final int TRLR    =  2;
+  public static final int INDI    =  3;
+  public static final int FAM     =  4;
+  public static final int NAME    =  5;
+  public static final int NSFX    =  6;
+  public static final int SEX     =  7;
+  public static final int TITL    =  8;
+  public static final int BIRT    =  9;
+  public static final int CHR     = 10;
+  public static final int DEAT    = 11;
+  public static final int BURI    = 12;
+  public static final int ADOP    = 13;
+  public static final int RESI    = 14;
+  public static final int NOTE    = 15;
+  public static final int CONT    = 16;
+  public static final int CONC    = 17;
+  public static final int FAMC    = 18;
+  public static final int FAMS    = 19;
+  public static final int FAMF    = 20;
+  public static final int HUSB    = 21;
+  public static final int WIFE    = 22;
+  public static final int CHIL    = 23;
+  public static final int MARR    = 24;
+  public static final int DATE    = 25;
+  public static final int PLAC    = 26;
+  public static final int TYPE    = 27;
+  public static final int SOUR    = 28;
+  public static final int OBJE    = 29;
+  public static final int REPO    = 30;
+  public static final int CHAN    = 31;
+  public static final int CHAR    = 32;
+
+  public static final int COUNT   = 33;   // Number of codes, including UNKNOWN
+
+  // The tag for each code
+  private static final String names[] =
+  {
+    null,   "HEAD", "TRLR", "INDI", "FAM",  "NAME", "NSFX", "SEX",  "TITL",
+    "BIRT", "CHR",  "DEAT", "BURI", "ADOP", "RESI", "NOTE", "CONT", "CONC",
+    "FAMC", "FAMS", "FAMF", "HUSB", "WIFE", "CHIL", "MARR", "DATE", "PLAC",
+    "TYPE", "SOUR", "OBJE", "REPO", "CHAN", "CHAR"
+  };
+
+  // The hash table.  Each slot holds a code, or UNKNOWN if it's empty, and
+  // the bytes of the tag with that code.
+  private static int    slotCodes[];
+  private static byte   slotTags[][];
+  private static int    mask;
+  private static int    multiplier;
+
+  static
+  {
+    buildTable();
+  }
+
+  // Returns the code for the tag in buf[start..end), or UNKNOWN
+  public static int lookup (byte buf[], int start, int end)
+  {
+    int  h = 0;
+    int  i;
+    int  code;
+    byte tag[];
+
+    for (i = start; i < end; i++)
+      h = h * multiplier + buf[i];
+
+    code = slotCodes[(h ^ (h >>> 16)) & mask];
+    if (code == UNKNOWN)
+      return UNKNOWN;
+
+    tag = slotTags[code];
+    if (tag.length != end - start)
+      return UNKNOWN;
+    for (i = 0; i < tag.length; i++)
+      if (tag[i] != buf[start + i])
+        return UNKNOWN;
+
+    return code;
+  }
+
+  public static int lookup (String tag)
+  {
+    byte buf[] = new byte[tag.length()];
+    int  i;
+
+    for (i = 0; i < buf.length; i++)
+      buf[i] = (byte) tag.charAt(i);
+
+    return lookup (buf, 0, buf.length);
+  }
+
+  public static String name (int code)
+  {
+    return names[code];
+  }
+
+  // Finds the smallest table, and a multiplier for it, where every known tag
+  // gets a slot of its own.
+  private static void buildTable ()
+  {
+    int code;
+    int i;
+
+    slotTags = new byte[COUNT][];
+    for (code = 1; code < COUNT; code++)
+    {
+      slotTags[code] = new byte[names[code].length()];
+      for (i = 0; i < names[code].length(); i++)
+        slotTags[code][i] = (byte) names[code].charAt(i);
+    }
+
+    for (int size = 64; ; size *= 2)
+    {
+      for (multiplier = 31; multiplier < 31 + 256; multiplier += 2)
+      {
+        mask      = size - 1;
+        slotCodes = new int[size];
+        for (code = 1; code < COUNT; code++)
+        {
+          int slot = slotFor (slotTags[code]);
+          if (slotCodes[slot] != UNKNOWN)
+            break;
+          slotCodes[slot] = code;
+        }
+        if (code == COUNT)
+          return;
+      }
+    }
+  }
+
+  private static int slotFor (byte tag[])
+  {
+    int h = 0;
+    int i;
+
+    for (i = 0; i < tag.length; i++)
+      h = h * multiplier + tag[i];
+
+    return (h ^ (h >>> 16)) & mask;
+  }
+}
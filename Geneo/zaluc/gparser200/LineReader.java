@@ -0,0 +1,347 @@
+package zaluc.gparser200;
+
+import java.io.*;
+
+import zaluc.utils.*;
+
+//+-- Class LineReader -------------------------------------------------------+
+//|                                                                           |
+//| Syntax:       class LineReader                                            |
+//|                                                                           |
+//| Description:  The LineReader class is the first stage of a two stage     |
+//|               pipeline for parsing a gedcom file on one thread.  It runs  |
+//|               on a thread of its own, reads the source and finds where   |
+//|               each line starts and ends, while the GedcomScanner on the   |
+//|               calling thread splits up the lines and the RecordParser     |
+//|               builds the records.  The waiting for the source, which can  |
+//|               be long on a network drive, then overlaps with the parsing. |
+//|                                                                           |
+//|               The lines are handed over in batches.  A fixed ring of      |
+//|               BATCH_COUNT batches goes around between the two threads:    |
+//|               the reader takes an empty batch from the free queue, fills |
+//|               it and puts it in the full queue, and the scanner takes it  |
+//|               from there and gives it back once it's done with its lines. |
+//|               The threads only synchronize once per batch, and the        |
+//|               reader waits when every batch is full, so it never gets    |
+//|               more than a few batches ahead of the parser.                |
+//|                                                                           |
+//|               Each stage counts the time it spends working and waiting    |
+//|               for the other one, see printStats.                          |
+//|                                                                           |
+//| Methods:      public Batch take       ()                                  |
+//|               public void  release    (Batch batch)                       |
+//|               public void  close      ()                                  |
+//|               public void  printStats (PrintStream out)                   |
+//|                                                                           |
+//|---------------------------------------------------------------------------+
+
+class LineReader implements Runnable
+{
+  static final int BATCH_SIZE  = 256 * 1024;   // Bytes in a batch, unless a line is longer
+  static final int BATCH_COUNT = 8;            // Batches in the ring
+
+  private InputStream  source;
+  private BoundedQueue free;                   // Batches the reader can fill
+  private BoundedQueue full;                   // Batches waiting for the scanner
+  private Thread       thread;
+  private IOException  error = null;           // Set by the reading thread
+
+  // Counters for the reading stage.  They are only written by the reading
+  // thread, and only read once it has closed the full queue.
+  private long         bytes       = 0;
+  private long         lines       = 0;
+  private long         batches     = 0;
+  private long         readNanos   = 0;        // Waiting for the source
+  private long         splitNanos  = 0;        // Finding the line ends
+  private long         fullNanos   = 0;        // Waiting for a free batch
+
+  // Counters for the parsing stage
+  private long         startNanos;
+  private long         endNanos    = 0;
+  private long         emptyNanos  = 0;        // Waiting for a full batch
+
+  //+-- Class Batch ----------------------------------------------------------+
+  //| The bytes of some whole lines, and where each line starts and ends.    |
+  //| The ends don't include the line terminators.                           |
+  //+-------------------------------------------------------------------------+
+  static class Batch
+  {
+    byte data[]   = new byte[BATCH_SIZE];
+    int  length   = 0;
+    int  starts[] = new int[BATCH_SIZE / 32];
+    int  ends[]   = new int[BATCH_SIZE / 32];
+    int  count    = 0;
+
+    void addLine (int start, int end)
+    {
+      if (count == starts.length)
+      {
+        int newStarts[] = new int[count * 2];
+        int newEnds[]   = new int[count * 2];
+        System.arraycopy (starts, 0, newStarts, 0, count);
+        System.arraycopy (ends,   0, newEnds,   0, count);
+        starts = newStarts;
+        ends   = newEnds;
+      }
+      starts[count] = start;
+      ends[count]   = end;
+      count++;
+    }
+  }
+
+  // Starts the reading thread.  The source should come from
+  // GedcomDecoder.open.
+  public LineReader (InputStream source)
+  {
+    int i;
+
+    this.source = source;
+    this.free   = new BoundedQueue (BATCH_COUNT);
+    this.full   = new BoundedQueue (BATCH_COUNT);
+
+    try
+    {
+      for (i = 0; i < BATCH_COUNT; i++)
+        free.put (new Batch());
+    }
+    catch (InterruptedException e)
+    {
+      // The queue has room for every batch, so put doesn't wait
+    }
+
+    startNanos  = System.nanoTime();
+    thread = new Thread (this, "Line Reader");
+    thread.setDaemon (true);
+    thread.start();
+  }
+
+  //+-------------------------------------------------+
+  //| Routines for the parsing stage                  |
+  //+-------------------------------------------------+
+
+  // Returns the next full batch, waiting for it if necessary, or null at
+  // the end of the file.  An IOException on the reading thread is thrown
+  // here, after the batches read before it.
+  public Batch take () throws IOException
+  {
+    Batch batch;
+    long  start = System.nanoTime();
+
+    try
+    {
+      batch = (Batch) full.take();
+    }
+    catch (InterruptedException e)
+    {
+      throw new InterruptedIOException ("Reading was interrupted");
+    }
+
+    emptyNanos += System.nanoTime() - start;
+
+    if (batch == null)
+    {
+      if (endNanos == 0)
+        endNanos = System.nanoTime();
+      if (error != null)
+        throw error;
+    }
+
+    return batch;
+  }
+
+  // Gives a batch back to the reader once the scanner is done with it
+  public void release (Batch batch)
+  {
+    try
+    {
+      free.put (batch);
+    }
+    catch (InterruptedException e)
+    {
+      // The free queue has room for every batch, so put doesn't wait
+    }
+    catch (IllegalStateException e)
+    {
+      // The reader has been closed
+    }
+  }
+
+  // Stops the reading thread and closes the source
+  public void close () throws IOException
+  {
+    free.close();
+    full.close();
+    thread.interrupt();
+    source.close();
+  }
+
+  // Prints how busy each stage was.  The stage that spent the least time
+  // waiting for the other one is the one that held the parse up.
+  public void printStats (PrintStream out)
+  {
+    long parseNanos = ((endNanos != 0) ? endNanos : System.nanoTime()) - startNanos - emptyNanos;
+
+    out.println ("Reading stage: " + lines + " lines, " + bytes + " bytes, " + batches + " batches");
+    out.println ("   Reading:     " + millis (readNanos) + " ms (" + rate (bytes / 1024, readNanos) + " KB/sec)");
+    out.println ("   Splitting:   " + millis (splitNanos) + " ms (" + rate (lines, splitNanos) + " lines/sec)");
+    out.println ("   Waiting:     " + millis (fullNanos) + " ms for the parsing stage");
+    out.println ("Parsing stage:");
+    out.println ("   Parsing:     " + millis (parseNanos) + " ms (" + rate (lines, parseNanos) + " lines/sec)");
+    out.println ("   Waiting:     " + millis (emptyNanos) + " ms for the reading stage");
+    out.println ("The " + ((fullNanos < emptyNanos) ? "reading" : "parsing") + " stage was the slower one");
+  }
+
+  //+-------------------------------------------------+
+  //| The reading stage                               |
+  //+-------------------------------------------------+
+
+  // The reading thread.  Fills batches with whole lines until the end of
+  // the source.  A line that doesn't fit in what's left of a batch is
+  // moved to the start of the next one.
+  public void run ()
+  {
+    Batch   batch;
+    Batch   next;
+    boolean eof = false;
+    int     count;
+    int     carry;
+    long    start;
+
+    try
+    {
+      batch = takeFree();
+      while (batch != null)
+      {
+        // Fill the batch
+        start = System.nanoTime();
+        while ((batch.length < batch.data.length) &&
+               ((count = source.read (batch.data, batch.length, batch.data.length - batch.length)) >= 0))
+          batch.length += count;
+        eof = (batch.length < batch.data.length);
+        readNanos += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        carry = split (batch, eof);
+        splitNanos += System.nanoTime() - start;
+
+        if ((batch.count == 0) && !eof)
+        {
+          // One line fills the whole batch, so make it bigger
+          byte newData[] = new byte[batch.data.length * 2];
+          System.arraycopy (batch.data, 0, newData, 0, batch.length);
+          batch.data = newData;
+          continue;
+        }
+
+        bytes += batch.length - carry;
+        lines += batch.count;
+        if (batch.count > 0)
+        {
+          batches++;
+          next = eof ? null : takeFree();
+          if (next != null)
+          {
+            // The partial line at the end starts the next batch
+            if (carry > next.data.length)
+              next.data = new byte[batch.data.length];
+            System.arraycopy (batch.data, batch.length - carry, next.data, 0, carry);
+            next.length = carry;
+          }
+          full.put (batch);
+        }
+        else
+          next = null;
+
+        batch = next;
+      }
+    }
+    catch (IOException e)
+    {
+      error = e;
+    }
+    catch (InterruptedException e)
+    {
+      // The reader was closed
+    }
+    catch (IllegalStateException e)
+    {
+      // The reader was closed while the thread was waiting to put a batch
+    }
+    finally
+    {
+      full.close();
+    }
+  }
+
+  // Takes a batch from the free queue and empties it, or returns null if
+  // the reader has been closed.
+  private Batch takeFree () throws InterruptedException
+  {
+    Batch batch;
+    long  start = System.nanoTime();
+
+    batch = (Batch) free.take();
+    fullNanos += System.nanoTime() - start;
+
+    if (batch != null)
+    {
+      batch.length = 0;
+      batch.count  = 0;
+    }
+
+    return batch;
+  }
+
+  // Finds the lines in a batch.  A line ends with LF, CR or CR LF, like in
+  // GedcomScanner.  Returns the number of bytes at the end of the batch
+  // that aren't a whole line.  At the end of the file, whatever is left is
+  // the last line.
+  private static int split (Batch batch, boolean eof)
+  {
+    byte data[] = batch.data;
+    int  len    = batch.length;
+    int  start  = 0;
+    int  i      = 0;
+    byte c;
+
+    while (i < len)
+    {
+      c = data[i];
+      if ((c != '\n') && (c != '\r'))
+      {
+        i++;
+        continue;
+      }
+
+      // A CR at the very end might be followed by a LF that hasn't been
+      // read yet, so it doesn't end a line.
+      if ((c == '\r') && (i + 1 == len) && !eof)
+        break;
+
+      batch.addLine (start, i);
+      if ((c == '\r') && (i + 1 < len) && (data[i + 1] == '\n'))
+        i += 2;
+      else
+        i++;
+      start = i;
+    }
+
+    if (eof && (start < len))
+    {
+      batch.addLine (start, len);
+      start = len;
+    }
+
+    return len - start;
+  }
+
+  private static long millis (long nanos)
+  {
+    return nanos / 1000000;
+  }
+
+  private static long rate (long count, long nanos)
+  {
+    return (nanos > 0) ? (count * 1000000000L / nanos) : count;
+  }
+}
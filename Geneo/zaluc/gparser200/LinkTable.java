@@ -0,0 +1,83 @@
+package zaluc.gparser200;
+
+//+-- Class LinkTable --------------------------------------------------------+
+//|                                                                           |
+//| Syntax:       class LinkTable                                             |
+//|                                                                           |
+//| Description:  The LinkTable class holds the links from families to       |
+//|               people that have been read but not yet resolved.  A family  |
+//|               record can come before the person records it points to, so  |
+//|               the links can't be made while the file is being read.       |
+//|               Instead, each HUSB, WIFE and CHIL line is recorded here as  |
+//|               a (family, role, person) triple of ints, and all of them    |
+//|               are resolved in one pass once the whole file has been read. |
+//|               See PeopleList.resolveLinks.                                |
+//|                                                                           |
+//|               The triples are stored one after the other in a single int  |
+//|               array, which doubles in size when it fills up.              |
+//|                                                                           |
+//| Methods:      public void add      (int family, int role, int person)     |
+//|               public int  size     ()                                     |
+//|               public int  family   (int link)                             |
+//|               public int  role     (int link)                             |
+//|               public int  person   (int link)                             |
+//|                                                                           |
+//|---------------------------------------------------------------------------+
+
+class LinkTable
+{
+  // Roles
+  public static final int HUSBAND = 0;
+  public static final int WIFE    = 1;
+  public static final int CHILD   = 2;
+
+  private int links[];
+  private int count = 0;    // Number of triples
+
+  public LinkTable ()
+  {
+    this (256);
+  }
+
+  public LinkTable (int initialCapacity)
+  {
+    links = new int[initialCapacity * 3];
+  }
+
+  public void add (int family, int role, int person)
+  {
+    int i = count * 3;
+
+    if (i == links.length)
+    {
+      int newLinks[] = new int[links.length * 2];
+      System.arraycopy(links, 0, newLinks, 0, links.length);
+      links = newLinks;
+    }
+
+    links[i]     = family;
+    links[i + 1] = role;
+    links[i + 2] = person;
+    count++;
+  }
+
+  public int size ()
+  {
+    return count;
+  }
+
+  public int family (int link)
+  {
+    return links[link * 3];
+  }
+
+  public int role (int link)
+  {
+    return links[link * 3 + 1];
+  }
+
+  public int person (int link)
+  {
+    return links[link * 3 + 2];
+  }
+}
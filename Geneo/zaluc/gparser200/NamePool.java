@@ -0,0 +1,242 @@
+package zaluc.gparser200;
+
+//+-- Class NamePool ---------------------------------------------------------+
+//|                                                                           |
+//| Syntax:       class NamePool                                              |
+//|                                                                           |
+//| Description:  The NamePool class keeps one copy of each distinct name,    |
+//|               so that the thousands of people who share a surname, or a  |
+//|               first name, or a title, all point at the same String.       |
+//|                                                                           |
+//|               A name can be looked up as part of a longer String, like   |
+//|               the surname between the slashes of a NAME value, so that   |
+//|               no substring is made unless the name is new.  The table     |
+//|               uses open addressing with linear probing, like XrefMap, and |
+//|               keeps the hash of each name next to it.                     |
+//|                                                                           |
+//|               Each name is also given an ID, in the order the names were  |
+//|               added, so a table can refer to a name with an int.          |
+//|                                                                           |
+//|               The pool also counts how many names it was asked for and    |
+//|               roughly how much memory it saved by handing back one it    |
+//|               already had.                                                |
+//|                                                                           |
+//|               A pool is only used by one thread at a time, so it takes no |
+//|               locks.  Each parser thread has a pool of its own, see       |
+//|               ParallelParser, and PeopleList.merge puts the names from it |
+//|               into Parser.namePool.  After that, Parser.namePool is only  |
+//|               read.                                                       |
+//|                                                                           |
+//| Methods:      public String intern    (String s)                          |
+//|               public String intern    (String s, int start, int end)      |
+//|               public int    internId  (String s)                          |
+//|               public int[]  internAll (NamePool other)                    |
+//|               public int    id        (String name)                       |
+//|               public String name      (int id)                            |
+//|               public int    size      ()                                  |
+//|               public String stats     ()                                  |
+//|                                                                           |
+//|---------------------------------------------------------------------------+
+
+class NamePool
+{
+  // Rough size of a String with no chars, including its char array, on a
+  // 64 bit VM.  Each char adds two bytes.
+  private static final int STRING_OVERHEAD = 40;
+
+  private String names[];
+  private int    hashes[];
+  private int    ids[];            // ID of the name in each slot
+  private String byId[];           // The names, by ID
+  private int    count = 0;
+
+  private long   lookups    = 0;
+  private long   hits       = 0;
+  private long   bytesHeld  = 0;    // Size of the names in the pool
+  private long   bytesSaved = 0;    // Size of the copies that weren't made
+
+  public NamePool ()
+  {
+    this (4096);
+  }
+
+  public NamePool (int expectedCount)
+  {
+    int size = 16;
+
+    while (size < expectedCount * 2)
+      size *= 2;
+
+    names  = new String[size];
+    hashes = new int[size];
+    ids    = new int[size];
+    byId   = new String[size / 2];
+  }
+
+  // Returns the pool's copy of s, adding s if it's new.  Returns null if
+  // s is null.
+  public String intern (String s)
+  {
+    if (s == null)
+      return null;
+    return intern (s, 0, s.length());
+  }
+
+  // Returns the pool's copy of the part of s from start to end, making
+  // and adding a substring only if it's new.
+  public String intern (String s, int start, int end)
+  {
+    return byId[add (s, start, end)];
+  }
+
+  // Returns the ID of s, adding s if it's new.  Returns -1 if s is null.
+  public int internId (String s)
+  {
+    if (s == null)
+      return -1;
+    return add (s, 0, s.length());
+  }
+
+  // Adds every name of another pool to this one.  Returns an array that
+  // gives, for each ID in the other pool, the ID in this one.
+  public int[] internAll (NamePool other)
+  {
+    int remap[] = new int[other.count];
+    int i;
+
+    for (i = 0; i < other.count; i++)
+      remap[i] = add (other.byId[i], 0, other.byId[i].length());
+
+    return remap;
+  }
+
+  // Returns the ID of a name in the pool, or -1 if it's null or isn't in
+  // the pool.
+  public int id (String name)
+  {
+    int mask = names.length - 1;
+    int slot;
+    int hash;
+
+    if (name == null)
+      return -1;
+
+    hash = hash (name, 0, name.length());
+    for (slot = hash & mask; names[slot] != null; slot = (slot + 1) & mask)
+      if ((hashes[slot] == hash) && names[slot].equals (name))
+        return ids[slot];
+
+    return -1;
+  }
+
+  // Returns the name with the given ID, or null for -1
+  public String name (int id)
+  {
+    return (id >= 0) ? byId[id] : null;
+  }
+
+  public int size ()
+  {
+    return count;
+  }
+
+  // Returns a line that describes how the pool did
+  public String stats ()
+  {
+    return "name pool: " + count + " names, " + bytesHeld + " bytes, " +
+           ((lookups > 0) ? (hits * 100 / lookups) : 0) + "% hit rate, " +
+           bytesSaved + " bytes saved";
+  }
+
+  //+-------------------------------------------------+
+  //| Internal routines                               |
+  //+-------------------------------------------------+
+
+  // Finds the part of s from start to end in the pool, adding it if it's
+  // new, and returns its ID
+  private int add (String s, int start, int end)
+  {
+    int    hash = hash (s, start, end);
+    int    len  = end - start;
+    int    mask = names.length - 1;
+    int    slot = hash & mask;
+    int    id;
+    String name;
+
+    lookups++;
+
+    while ((name = names[slot]) != null)
+    {
+      if ((hashes[slot] == hash) && (name.length() == len) &&
+          name.regionMatches (0, s, start, len))
+      {
+        hits++;
+        bytesSaved += size (len);
+        return ids[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    name = ((start == 0) && (end == s.length())) ? s : s.substring (start, end);
+    id   = count;
+    names[slot]  = name;
+    hashes[slot] = hash;
+    ids[slot]    = id;
+    byId[id]     = name;
+    bytesHeld   += size (len);
+    if (++count * 2 >= names.length)
+      grow();
+
+    return id;
+  }
+
+  // Doubles the table and puts every name back into it
+  private void grow ()
+  {
+    String oldNames[]  = names;
+    int    oldHashes[] = hashes;
+    int    oldIds[]    = ids;
+    String newById[]   = new String[byId.length * 2];
+    int    mask;
+    int    slot;
+    int    i;
+
+    System.arraycopy (byId, 0, newById, 0, count);
+    byId   = newById;
+    names  = new String[oldNames.length * 2];
+    hashes = new int[oldNames.length * 2];
+    ids    = new int[oldNames.length * 2];
+    mask   = names.length - 1;
+
+    for (i = 0; i < oldNames.length; i++)
+    {
+      if (oldNames[i] != null)
+      {
+        slot = oldHashes[i] & mask;
+        while (names[slot] != null)
+          slot = (slot + 1) & mask;
+        names[slot]  = oldNames[i];
+        hashes[slot] = oldHashes[i];
+        ids[slot]    = oldIds[i];
+      }
+    }
+  }
+
+  // The String.hashCode formula, with the high bits folded down
+  // since only the low bits pick the slot.
+  private static int hash (String s, int start, int end)
+  {
+    int h = 0;
+    int i;
+
+    for (i = start; i < end; i++)
+      h = 31 * h + s.charAt (i);
+
+    return h ^ (h >>> 16);
+  }
+
+  private static long size (int len)
+  {
+    return STRING_OVERHEAD + len * 2;
+  }
+}
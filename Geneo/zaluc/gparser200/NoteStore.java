@@ -0,0 +1,151 @@
+package zaluc.gparser200;
+
+import java.io.*;
+
+//+-- Class NoteStore --------------------------------------------------------+
+//|                                                                           |
+//| Syntax:       class NoteStore                                             |
+//|                                                                           |
+//| Description:  The NoteStore class keeps the text of the notes in a        |
+//|               temporary file, so that the notes of a large file don't    |
+//|               have to be held in memory.  The notes of a person are       |
+//|               appended to the file as soon as the person has been parsed, |
+//|               and the person keeps only where they start and how long    |
+//|               they are.  They are read back, a piece at a time, when the  |
+//|               details are written.                                        |
+//|                                                                           |
+//|               The text is stored as two bytes per char, so that any piece |
+//|               of it can be read without worrying about where a character  |
+//|               starts.  Notes can be appended from several parser threads  |
+//|               at once, so the reading and writing routines are            |
+//|               synchronized.                                               |
+//|                                                                           |
+//| Methods:      public long   append    (StringBuffer text)                 |
+//|               public String read      (long offset, int length)           |
+//|               public void   writeHtml (long offset, int length,           |
+//|                                        Writer out)                        |
+//|               public long   length    ()                                  |
+//|               public void   close     ()                                  |
+//|                                                                           |
+//|---------------------------------------------------------------------------+
+
+class NoteStore
+{
+  private static final int PIECE_SIZE = 4096;    // Chars read at a time by writeHtml
+
+  private File             file;
+  private RandomAccessFile data;
+  private OutputStream     out;                  // Buffered, appends to data
+  private long             length = 0;           // Bytes written so far
+  private byte             bytes[] = new byte[PIECE_SIZE * 2];
+  private char             chars[] = new char[PIECE_SIZE];
+
+  public NoteStore () throws IOException
+  {
+    file = File.createTempFile ("gparser", ".notes");
+    file.deleteOnExit();
+    data = new RandomAccessFile (file, "rw");
+    out  = new BufferedOutputStream (new FileOutputStream (data.getFD()), 65536);
+  }
+
+  // Appends the text to the end of the file and returns its offset
+  public synchronized long append (StringBuffer text) throws IOException
+  {
+    long offset = length;
+    int  count  = text.length();
+    int  i, n;
+    char c;
+
+    for (i = 0; i < count; )
+    {
+      for (n = 0; (n < bytes.length) && (i < count); i++)
+      {
+        c = text.charAt (i);
+        bytes[n++] = (byte) (c >> 8);
+        bytes[n++] = (byte) c;
+      }
+      out.write (bytes, 0, n);
+      length += n;
+    }
+
+    return offset;
+  }
+
+  // Reads back length chars of text from the given offset
+  public synchronized String read (long offset, int length) throws IOException
+  {
+    StringBuffer ret = new StringBuffer (length);
+    int          piece;
+
+    while (length > 0)
+    {
+      piece = Math.min (length, PIECE_SIZE);
+      readPiece (offset, piece);
+      ret.append (chars, 0, piece);
+      offset += piece * 2;
+      length -= piece;
+    }
+
+    return ret.toString();
+  }
+
+  // Writes length chars of text from the given offset to out, a piece at
+  // a time, as HTML.  The characters that mean something in HTML are
+  // escaped, and each line of the note ends with a <br>.
+  public synchronized void writeHtml (long offset, int length, Writer out) throws IOException
+  {
+    int  piece;
+    int  i;
+    char c;
+
+    while (length > 0)
+    {
+      piece = Math.min (length, PIECE_SIZE);
+      readPiece (offset, piece);
+      for (i = 0; i < piece; i++)
+      {
+        switch (c = chars[i])
+        {
+          case '<':   out.write ("&lt;");      break;
+          case '>':   out.write ("&gt;");      break;
+          case '&':   out.write ("&amp;");     break;
+          case '\n':  out.write ("<br>\n");    break;
+          default:    out.write (c);
+        }
+      }
+      offset += piece * 2;
+      length -= piece;
+    }
+  }
+
+  public long length ()
+  {
+    return length;
+  }
+
+  // Closes and deletes the temporary file
+  public synchronized void close () throws IOException
+  {
+    out.close();
+    data.close();
+    file.delete();
+  }
+
+  //+-------------------------------------------------+
+  //| Internal routines                               |
+  //+-------------------------------------------------+
+
+  // Reads count chars from the given offset into chars
+  private void readPiece (long offset, int count) throws IOException
+  {
+    int i;
+
+    out.flush();
+    data.seek (offset);
+    data.readFully (bytes, 0, count * 2);
+    data.seek (this.length);    // The writes share the file position
+
+    for (i = 0; i < count; i++)
+      chars[i] = (char) (((bytes[i * 2] & 0xFF) << 8) | (bytes[i * 2 + 1] & 0xFF));
+  }
+}
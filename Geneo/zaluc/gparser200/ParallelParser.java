@@ -0,0 +1,343 @@
+package zaluc.gparser200;
+
+import java.lang.*;
+import java.io.*;
+import java.util.*;
+
+import zaluc.utils.*;
+
+//+-- Class ParallelParser ---------------------------------------------------+
+//|                                                                           |
+//| Syntax:       class ParallelParser                                        |
+//|                                                                           |
+//| Description:  The ParallelParser class parses a gedcom file on several    |
+//|               threads at once.  A gedcom file is a list of level 0        |
+//|               records that don't depend on each other until the links    |
+//|               between people and families are made, so the work is done  |
+//|               in three steps:                                             |
+//|                                                                           |
+//|               1. The calling thread reads the file and cuts it into       |
+//|                  chunks of about CHUNK_SIZE bytes.  A chunk always ends   |
+//|                  just before a level 0 line.                              |
+//|                                                                           |
+//|               2. A pool of worker threads takes the chunks from a queue   |
+//|                  and parses each one with its own RecordParser, which     |
+//|                  builds partial tables of the people and families in it.  |
+//|                  Each worker keeps the names, events and places of its    |
+//|                  chunks in a NamePool, EventArena and PlaceTable of its   |
+//|                  own, so the workers never wait on each other.            |
+//|                                                                           |
+//|               3. Once every chunk is done, the partial tables are merged  |
+//|                  into the PeopleList in file order, along with the       |
+//|                  workers' names, events and places, and the links between |
+//|                  families and people are resolved.                        |
+//|                                                                           |
+//| Methods:      public static long parse (InputStream  source,              |
+//|                                         int          encoding,            |
+//|                                         Restrictions restrict,            |
+//|                                         PeopleList   people,              |
+//|                                         int          threadCount,         |
+//|                                         ParseErrors  errors,              |
+//|                                         ValueCache   dateCache,           |
+//|                                         ValueCache   placeCache)          |
+//|                                                                           |
+//|---------------------------------------------------------------------------+
+
+class ParallelParser implements Runnable
+{
+  static final int CHUNK_SIZE = 4 * 1024 * 1024;
+
+  private BoundedQueue queue;
+  private int          encoding;    // Character set of the file, see GedcomDecoder
+  private Restrictions restrict;
+  private ValueCache   dateCache;   // This thread's caches, see RecordParser
+  private ValueCache   placeCache;
+  private NamePool     namePool = new NamePool();       // This thread's names
+  private EventArena   eventArena = new EventArena();   // and events
+  private PlaceTable   placeTable = new PlaceTable();   // and places
+  private int          stringMap[];   // Its event strings in Parser.eventArena's
+  private int          placeMap[];    // Its places in Parser.placeTable's
+
+  //+-- Class Chunk ----------------------------------------------------------+
+  //| One piece of the file, and the results of parsing it.                  |
+  //+-------------------------------------------------------------------------+
+  static class Chunk
+  {
+    byte             data[];
+    int              length;
+    RecordParser     parser;
+    ParallelParser   worker;         // The thread that parsed it
+    int              lineCount;
+    int              familyBase;   // Index of the chunk's first family
+    int              personRemap[];  // Chunk's person xref indices to the list's
+    ParseErrors      errors;
+    Throwable        error;        // What stopped the chunk being parsed, if anything
+  }
+
+  private ParallelParser(BoundedQueue queue, int encoding, Restrictions restrict, int cacheSize)
+  {
+    this.queue      = queue;
+    this.encoding   = encoding;
+    this.restrict   = restrict;
+    this.dateCache  = new ValueCache (cacheSize);
+    this.placeCache = new ValueCache (cacheSize);
+  }
+
+  // Parses the source into people using threadCount worker threads.  The
+  // source should come from GedcomDecoder.open, which found the encoding.
+  // The problems found in each chunk are added to errors.  Each thread
+  // has caches the size of dateCache and placeCache, and their counts
+  // are added to them.  Returns the number of lines that were parsed.
+  public static long parse (InputStream  source,
+                            int          encoding,
+                            Restrictions restrict,
+                            PeopleList   people,
+                            int          threadCount,
+                            ParseErrors  errors,
+                            ValueCache   dateCache,
+                            ValueCache   placeCache) throws IOException
+  {
+    BoundedQueue   queue   = new BoundedQueue (threadCount * 2);
+    ChunkReader    reader  = new ChunkReader (source);
+    Vector         chunks  = new Vector ();
+    Thread         workers[] = new Thread[threadCount];
+    ParallelParser parsers[] = new ParallelParser[threadCount];
+    Chunk          chunk;
+    long           lines = 0;
+    int            i;
+
+    for (i = 0; i < threadCount; i++)
+    {
+      parsers[i] = new ParallelParser (queue, encoding, restrict, dateCache.capacity());
+      workers[i] = new Thread (parsers[i], "Parser Thread " + i);
+      workers[i].start();
+    }
+
+    try
+    {
+      // Step 1:  cut the file into chunks and hand them to the workers
+      try
+      {
+        while ((chunk = reader.next ()) != null)
+        {
+          chunks.addElement (chunk);
+          queue.put (chunk);
+        }
+      }
+      finally
+      {
+        queue.close();
+        source.close();
+      }
+
+      // Step 2 happens on the workers.  Wait for them to finish.
+      for (i = 0; i < threadCount; i++)
+      {
+        workers[i].join();
+        dateCache.addStats (parsers[i].dateCache);
+        placeCache.addStats (parsers[i].placeCache);
+      }
+    }
+    catch (InterruptedException e)
+    {
+      throw new InterruptedIOException ("Parsing was interrupted");
+    }
+
+    // Step 3:  merge the partial tables in file order, then link them up.
+    // Each chunk's links are numbered from its own first family.
+    for (i = 0; i < chunks.size(); i++)
+    {
+      chunk = (Chunk) chunks.elementAt(i);
+      if (chunk.error != null)
+        rethrow (chunk.error);
+      if (chunk.worker.stringMap == null)
+      {
+        chunk.worker.stringMap = Parser.eventArena.internStrings (chunk.worker.eventArena);
+        chunk.worker.placeMap  = Parser.placeTable.internAll (chunk.worker.placeTable);
+      }
+      chunk.parser.stringMap = chunk.worker.stringMap;
+      chunk.parser.placeMap  = chunk.worker.placeMap;
+      chunk.familyBase  = people.getFamilyCount();
+      chunk.personRemap = people.merge (chunk.parser);
+      errors.addAll (chunk.errors, (int) lines);
+      lines += chunk.lineCount;
+    }
+    for (i = 0; i < chunks.size(); i++)
+    {
+      chunk = (Chunk) chunks.elementAt(i);
+      people.resolveLinks (chunk.parser.links, chunk.familyBase, chunk.personRemap);
+      chunk.parser = null;
+      chunk.worker = null;
+    }
+    people.finishLinks();
+
+    return lines;
+  }
+
+  // The worker thread:  parse chunks until the queue is closed and empty.
+  public void run ()
+  {
+    Chunk         chunk;
+    GedcomScanner scanner;
+    GedcomDecoder decoder = new GedcomDecoder (encoding);   // One per thread
+
+    try
+    {
+      while ((chunk = (Chunk) queue.take()) != null)
+      {
+        chunk.worker = this;
+        try
+        {
+          scanner = new GedcomScanner (new ByteArrayInputStream (chunk.data, 0, chunk.length), decoder);
+          chunk.parser = new RecordParser (scanner, restrict, null, dateCache, placeCache);
+          chunk.parser.namePool   = namePool;
+          chunk.parser.eventArena = eventArena;
+          chunk.parser.placeTable = placeTable;
+          chunk.parser.parseAll();
+          chunk.lineCount = scanner.lineNum;
+          chunk.errors    = scanner.errors;
+        }
+        catch (Throwable e)
+        {
+          // Anything at all, even an OutOfMemoryError, is kept with the
+          // chunk and thrown again when the chunk is merged, rather than
+          // leaving the chunk without a parser.
+          chunk.error = e;
+        }
+        chunk.data = null;    // Let the bytes go as soon as possible
+      }
+    }
+    catch (InterruptedException e)
+    {
+      // Nothing more to do
+    }
+  }
+
+  // Throws what stopped a worker from parsing a chunk, on the thread that
+  // is merging the chunks, as it was thrown on the worker.
+  private static void rethrow (Throwable error) throws IOException
+  {
+    if (error instanceof IOException)
+      throw (IOException) error;
+    if (error instanceof RuntimeException)
+      throw (RuntimeException) error;
+    if (error instanceof Error)
+      throw (Error) error;
+    throw new IOException (error.toString());
+  }
+
+  //+-------------------------------------------------------------------------+
+  //| Cutting the file into chunks                                            |
+  //+-------------------------------------------------------------------------+
+
+  //+-- Class ChunkReader ----------------------------------------------------+
+  //| Reads a source and cuts it into chunks.                                |
+  //+-------------------------------------------------------------------------+
+  static class ChunkReader
+  {
+    private InputStream source;
+    private byte        leftover[]    = null;   // Start of the next chunk
+    private int         leftoverCount = 0;
+
+    ChunkReader (InputStream source)
+    {
+      this.source = source;
+    }
+
+    // Reads the next chunk from the source.  The chunk is at least
+    // CHUNK_SIZE bytes long, unless it's the last one, and ends just before
+    // the start of a level 0 line.  Returns null at the end of the file.
+    Chunk next () throws IOException
+    {
+      byte  buf[] = new byte[CHUNK_SIZE + CHUNK_SIZE / 4];
+      int   len   = 0;
+      int   count;
+      int   split;
+      Chunk chunk;
+
+      if (leftoverCount > 0)
+      {
+        if (leftoverCount > buf.length)
+          buf = new byte[leftoverCount * 2];
+        System.arraycopy (leftover, 0, buf, 0, leftoverCount);
+        len = leftoverCount;
+        leftoverCount = 0;
+      }
+
+      while (true)
+      {
+        // Fill the buffer up to the chunk size
+        while (len < CHUNK_SIZE)
+        {
+          if (len == buf.length)
+            buf = grow (buf);
+          if ((count = source.read (buf, len, buf.length - len)) < 0)
+            break;
+          len += count;
+        }
+
+        if (len < CHUNK_SIZE)
+        {
+          // The end of the file, this is the last chunk
+          leftover = null;
+          if (len == 0)
+            return null;
+          split = len;
+          break;
+        }
+
+        if ((split = lastRecordStart (buf, len)) > 0)
+          break;
+
+        // No level 0 line in the whole buffer (a very long record), so read
+        // some more and try again.
+        buf = grow (buf);
+        if ((count = source.read (buf, len, buf.length - len)) < 0)
+        {
+          split = len;
+          break;
+        }
+        len += count;
+      }
+
+      chunk = new Chunk();
+      chunk.data   = buf;
+      chunk.length = split;
+
+      // Whatever is after the split is the start of the next chunk
+      if (split < len)
+      {
+        leftover      = new byte[len - split];
+        leftoverCount = len - split;
+        System.arraycopy (buf, split, leftover, 0, leftoverCount);
+      }
+
+      return chunk;
+    }
+
+    // Returns the offset of the last level 0 line in the buffer, or 0 if
+    // there isn't one.  Only lines that start with "0" followed by a space
+    // are found, which is what every gedcom file uses for level 0 records.
+    private static int lastRecordStart (byte buf[], int len)
+    {
+      int i;
+
+      for (i = len - 2; i > 0; i--)
+      {
+        if ((buf[i] == '0') &&
+            ((buf[i - 1] == '\n') || (buf[i - 1] == '\r')) &&
+            ((buf[i + 1] == ' ') || (buf[i + 1] == '\t')))
+          return i;
+      }
+
+      return 0;
+    }
+
+    private static byte[] grow (byte buf[])
+    {
+      byte newBuf[] = new byte[buf.length * 2];
+      System.arraycopy (buf, 0, newBuf, 0, buf.length);
+      return newBuf;
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package zaluc.gparser200;
+
+import java.io.*;
+
+//+-- Class ParseErrors ------------------------------------------------------+
+//|                                                                           |
+//| Syntax:       class ParseErrors                                           |
+//|                                                                           |
+//| Description:  The ParseErrors class collects the problems found while a   |
+//|               gedcom file is parsed, so that a bad line costs no more     |
+//|               than a count and the parse carries on at full speed.  Every |
+//|               problem is counted by category, but only the first few are  |
+//|               kept, with their line number and the start of the line.     |
+//|               The summary is printed once the whole file has been read.  |
+//|                                                                           |
+//|               Each GedcomScanner has its own ParseErrors, so the parser   |
+//|               threads don't share one.  The errors of each chunk are     |
+//|               added to the file's in file order, see addAll.              |
+//|                                                                           |
+//| Methods:      public boolean full         ()                              |
+//|               public void    add          (int    category,               |
+//|                                            int    lineNum,                |
+//|                                            String line)                   |
+//|               public void    addAll       (ParseErrors other,             |
+//|                                            int         lineOffset)        |
+//|               public int     total        ()                              |
+//|               public void    printSummary (PrintStream out)               |
+//|                                                                           |
+//|---------------------------------------------------------------------------+
+
+class ParseErrors
+{
+  // Categories
+  public static final int BAD_LINE   = 0;   // Doesn't start with a level number
+  public static final int LEVEL_JUMP = 1;   // Level more than one deeper than the line before
+  public static final int NO_XREF    = 2;   // INDI or FAM record without an xref
+  public static final int BAD_NAME   = 3;   // NAME line that can't be split up
+  public static final int COUNT      = 4;
+
+  private static final String categoryNames[] =
+  {
+    "Lines without a level number",
+    "Lines more than one level below the line before",
+    "Records without an xref",
+    "Names that couldn't be split into first and last names"
+  };
+
+  private static final int DEFAULT_KEPT = 25;    // How many problems are kept
+  private static final int SNIPPET_SIZE = 60;    // How much of each line is kept
+
+  private int    counts[]     = new int[COUNT];
+  private int    lineNums[];
+  private int    categories[];
+  private String snippets[];
+  private int    kept = 0;
+
+  public ParseErrors ()
+  {
+    this (DEFAULT_KEPT);
+  }
+
+  public ParseErrors (int maxKept)
+  {
+    lineNums   = new int[maxKept];
+    categories = new int[maxKept];
+    snippets   = new String[maxKept];
+  }
+
+  // True once no more problems will be kept.  The caller can then skip
+  // making the snippet.
+  public boolean full ()
+  {
+    return kept == lineNums.length;
+  }
+
+  public void add (int category, int lineNum, String line)
+  {
+    counts[category]++;
+
+    if (kept < lineNums.length)
+    {
+      if ((line != null) && (line.length() > SNIPPET_SIZE))
+        line = line.substring (0, SNIPPET_SIZE) + "...";
+      lineNums[kept]   = lineNum;
+      categories[kept] = category;
+      snippets[kept]   = line;
+      kept++;
+    }
+  }
+
+  // Adds the problems found in a chunk of the file.  lineOffset is the
+  // number of lines in the file before the chunk.
+  public void addAll (ParseErrors other, int lineOffset)
+  {
+    int i;
+
+    for (i = 0; i < COUNT; i++)
+      counts[i] += other.counts[i];
+
+    for (i = 0; (i < other.kept) && (kept < lineNums.length); i++)
+    {
+      lineNums[kept]   = other.lineNums[i] + lineOffset;
+      categories[kept] = other.categories[i];
+      snippets[kept]   = other.snippets[i];
+      kept++;
+    }
+  }
+
+  public int total ()
+  {
+    int ret = 0;
+    int i;
+
+    for (i = 0; i < COUNT; i++)
+      ret += counts[i];
+
+    return ret;
+  }
+
+  public void printSummary (PrintStream out)
+  {
+    int i;
+
+    out.println (total() + " problems were found in the gedcom file:");
+    for (i = 0; i < COUNT; i++)
+      if (counts[i] > 0)
+        out.println ("   " + categoryNames[i] + ": " + counts[i]);
+
+    if (kept > 0)
+    {
+      out.println ("The first " + kept + " were:");
+      for (i = 0; i < kept; i++)
+        out.println ("   Line " + lineNums[i] + ": " + categoryNames[categories[i]] +
+                     ": <" + snippets[i] + ">");
+    }
+  }
+}
@@ -4,6 +4,9 @@ import java.lang.*;
 import java.io.*;
 import java.util.*;
 import java.util.zip.GZIPOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipEntry;
 import java.text.*;
 
 import zaluc.utils.*;
@@ -13,41 +16,59 @@ import zaluc.utils.*;
 //| Syntax:       public class Parser                                         |
 //|                                                                           |
 //| Description:  The Parser class is responsible for parsing a gedcom file.  |
-//|               It pulls a file name from the params, and a ParserUpdates   |
-//|               object, and updates the ParserUpdates object with the       |
-//|               progress of the parsing and, ultimately, with a sorted list |
-//|               of Person objects.                                          |
+//|               It is run from the command line with the name of the file,  |
+//|               the start person and a list of parameters, parses the       |
+//|               people and families in the file, sorts them, and writes     |
+//|               them to a data file next to it.                             |
 //|                                                                           |
-//| Methods:      public void parseFile (Params        inParams,              |
-//|                                      ParserUpdates inCaller)              |
+//| Methods:      public static void main (String argv[])                     |
 //|                                                                           |
-//|               void parsePerson      () throws IOException                 |
+//|               public static boolean parseFile (String       source,       |
+//|                                                Restrictions restrict)     |
+//|                 throws FileNotFoundException, IOException                 |
 //|                                                                           |
-//|               void parseName        (Person person)                       |
+//|               static InputStream openSource (String source)               |
+//|                 throws IOException                                        |
 //|                                                                           |
-//|               void parseBirth       (Person person) throws IOException    |
+//|               static String outputName (String source)                    |
 //|                                                                           |
-//|               void parseDeath       (Person person) throws IOException    |
+//|               static String curLine ()                                    |
 //|                                                                           |
-//|               void parseFamily      () throws IOException                 |
+//|               static int curLineNum ()                                    |
 //|                                                                           |
-//|               Person sort           (int     start,                       |
-//|                                      int     end)                         |
+//|               static void printRate (String what,                         |
+//|                                      long   lines,                        |
+//|                                      long   millis)                       |
+//|                                                                           |
+//|               public static void writeFile (String dest,                  |
+//|                                             Person startPerson)           |
+//|                                                                           |
+//|               private static void writeDetails ()                         |
+//|                                                                           |
+//|               public static void dumpParams (String argv[])               |
 //|                                                                           |
 //|---------------------------------------------------------------------------+
 
 public class Parser
 {
-  static BufferedReader   SrcStream;   // Source stream
-  static StringTokenizer  tokenizer;
-  static String           curLine;          // Used in error reporting only
-  static int              curLineNum = 0;   // Used in error reporting only
-  static int              curLevel;
+  static GedcomScanner    scanner;     // Source scanner
+  static LineReader       lineReader;  // Reads the lines for the scanner
   static PeopleList       people;
   static boolean          createHtmlDetails = false;  // Create HTML details
   static boolean          includeDetails    = true;   // Include details in data file
   static String           password   = null;  // Password
   static boolean          verbose    = false; // used for debug output
+  static int              threadCount = 0;     // Parse on this many threads, 0 for the old way
+  static boolean          preScan     = false; // Count the records first to size the tables
+  static long             heapCeiling = 0;     // Spill people to disk above this heap size, 0 for never
+  static PersonStore      personStore;         // Where people are spilled
+  static NoteStore        noteStore;           // Where the notes are kept, null if they aren't wanted
+  static int              cacheSize   = ValueCache.DEFAULT_CAPACITY;  // Entries in the DATE and PLAC caches
+  static NamePool         namePool    = new NamePool(); // One copy of each name, shared by every person
+  static PlaceTable       placeTable  = new PlaceTable(); // Every place, by ID
+  static EventArena       eventArena  = new EventArena(); // The events of every person
+  static boolean          columnar    = false; // Build a PersonTable to work out the write order
+  static int              sortThreads = 1;     // Sort the people and families on this many threads
 
   // Return Codes:
   static final int retOkay              = 0;
@@ -62,6 +83,8 @@ public class Parser
   "The following parameters are allowable:                                \n\n" +
   "     filename:      This parameter must be first and must exist.  It is  \n" +
   "                    the name of the gedcom file that is to be parsed.    \n" +
+  "                    It may be compressed with gzip, or be in a zip file  \n" +
+  "                    or GEDZIP archive.                                   \n" +
   "                                                                         \n" +
   "     start person:  This parameter must be second and must exist.  It is \n" +
   "                    the gedcom ID number of the person that will         \n" +
@@ -115,7 +138,51 @@ public class Parser
   "                    excluded from the resulting tree even if they are    \n" +
   "                    \"dead\" by the preceding criteria.  The number      \n" +
   "                    following the 'X' indicates the gedcom ID number of  \n" +
-  "                    the individual to exclude.  For example \"X25\".   \n\n" +
+  "                    the individual to exclude.  For example \"X25\".     \n" +
+  "                                                                         \n" +
+  "     T00:           This parameter tells the parser to cut the gedcom    \n" +
+  "                    file into chunks and parse them on several threads.  \n" +
+  "                    The number following the 'T' is the number of        \n" +
+  "                    threads.  If there is no number, one thread is used  \n" +
+  "                    for each processor.  For example \"T16\".           \n" +
+  "                                                                         \n" +
+  "     C:             This parameter tells the parser to make a quick pass \n" +
+  "                    over the gedcom file first to count the people and   \n" +
+  "                    families in it, so that the tables that hold them    \n" +
+  "                    can be made the right size from the start.           \n" +
+  "                                                                         \n" +
+  "     H000:          This parameter tells the parser to work in bounded   \n" +
+  "                    memory.  Once more than the given number of MB of    \n" +
+  "                    heap is in use, each person is written whole to a    \n" +
+  "                    temporary file, and only its links and sort keys     \n" +
+  "                    are kept in memory.  The person is read back when    \n" +
+  "                    it is written out.  For example \"H512\".            \n" +
+  "                                                                         \n" +
+  "     Ktag,tag:      This parameter sets the tags that are skipped, along \n" +
+  "                    with everything under them, in person and family     \n" +
+  "                    records.  An underscore stands for every tag that    \n" +
+  "                    starts with one.  The default is \"KSOUR,OBJE,REPO\".  \n" +
+  "                    \"KSOUR,OBJE,REPO,CHAN,_\" also skips change dates     \n" +
+  "                    and the tags programs add, which are otherwise read  \n" +
+  "                    as events.  \"K\" alone skips nothing extra.           \n" +
+  "                                                                         \n" +
+  "     E000:          This parameter sets how many DATE values and how     \n" +
+  "                    many PLAC values are remembered, so that a value     \n" +
+  "                    that comes up again is only parsed once.  The        \n" +
+  "                    default is 4096.  \"E0\" turns this off.             \n" +
+  "                                                                         \n" +
+  "     A:             This parameter tells the parser to copy the people   \n" +
+  "                    and families into a table of arrays once they are    \n" +
+  "                    sorted, and to use it to work out the order in which \n" +
+  "                    they are written.  With V, the table is compared     \n" +
+  "                    with the objects for size and speed.                 \n" +
+  "                                                                         \n" +
+  "     O00:           This parameter tells the parser to sort the people,  \n" +
+  "                    the children of each family and the families of each \n" +
+  "                    person on several threads.  The number following the \n" +
+  "                    'O' is the number of threads.  If there is no number,\n" +
+  "                    one thread is used for each processor.  For example  \n" +
+  "                    \"O8\".                                               \n\n" +
   "Note that people who have no birth year will be considered to be dead    \n" +
   "and will be included in the resulting file.";
 
@@ -123,7 +190,7 @@ public class Parser
   //|                                                                         |
   //| Syntax:                                                                 |
   //|                                                                         |
-  //|   public statc void main(String argv[])                                 |
+  //|   public static void main(String argv[])                                |
   //|                                                                         |
   //| Description:                                                            |
   //|                                                                         |
@@ -131,6 +198,8 @@ public class Parser
   //|                                                                         |
   //|     filename:      This parameter must be first and must exist.  It is  |
   //|                    the name of the gedcom file that is to be parsed.    |
+  //|                    It may be compressed with gzip, or be in a zip file  |
+  //|                    or GEDZIP archive.                                   |
   //|                                                                         |
   //|     start person:  This parameter must be second and must exist.  It is |
   //|                    the gedcom ID number of the person that will be      |
@@ -147,41 +216,78 @@ public class Parser
   //|                    It should be used if details are not wanted, or if   |
   //|                    details will be provided through an HTML page.       |
   //|                                                                         |
-  //|     L0000:         This parameter, if it exists, must be third.  It     |
-  //|                    tells the parser not to include living people.       |
-  //|                    A person is considered to be still alive if they do  |
-  //|                    not have a death record and they were born after a   |
-  //|                    particular year.  The year is specified as a four    |
-  //|                    digit number after the 'L'.  For example, "L1916"    |
+  //|     Paaaaaaaa:     This parameter gives a password to be used to view   |
+  //|                    people who are alive.  It has no meaning if the L    |
+  //|                    parameter is not specified.                          |
+  //|                                                                         |
+  //|     L0000:         This parameter tells the parser how to handle living |
+  //|                    people.  A person is considered to be still alive if |
+  //|                    they do not have a death record and they were born   |
+  //|                    after a particular year.  The year is specified as a |
+  //|                    four digit number after the 'L'.  For example,       |
+  //|                    "L1916".  Living people are left out, unless a       |
+  //|                    password is given, in which case they are kept but   |
+  //|                    can only be viewed with the password.                |
   //|                                                                         |
-  //|     I000:          This parameter may exist any number of times after   |
-  //|                    the previous parameters.  It has no meaning unless   |
-  //|                    the L0000 parameter is specified.  It indicates      |
-  //|                    that a particular individual should be included in   |
-  //|                    in the resulting tree even if they are "alive" by    |
-  //|                    the preceding criteria.  The number following the    |
-  //|                    'I' indicates the gedcom ID number of the individual |
-  //|                    to include.  For example "I25".                      |
+  //|     I000:          This parameter may exist any number of times.  It has|
+  //|                    no meaning unless the L0000 parameter is specified.  |
+  //|                    It indicates that a particular individual should be  |
+  //|                    included in the resulting tree even if they are      |
+  //|                    "alive" by the preceding criteria.  The number       |
+  //|                    following the 'I' indicates the gedcom ID number of  |
+  //|                    the individual to include.  For example "I25".       |
   //|                                                                         |
-  //|     X000:          This parameter may exist any number of times after   |
-  //|                    the first three parameters.  It has no meaning       |
-  //|                    unless the L0000 parameter is specified.  It         |
-  //|                    indicates that a particular individual should be     |
+  //|     X000:          This parameter may exist any number of times.  It has|
+  //|                    no meaning unless the L0000 parameter is specified.  |
+  //|                    It indicates that a particular individual should be  |
   //|                    excluded from the resulting tree even if they are    |
   //|                    "dead" by the preceding criteria.  The number        |
   //|                    following the 'X' indicates the gedcom ID number of  |
   //|                    the individual to exclude.  For example "X25".       |
   //|                                                                         |
+  //|     V:             This parameter turns on verbose output: timings,     |
+  //|                    rates and the sizes of the tables as they are built. |
+  //|                                                                         |
+  //|     T00:           This parameter tells the parser to parse the file in |
+  //|                    chunks on the given number of threads, or on one     |
+  //|                    thread per processor if there is no number.          |
+  //|                                                                         |
+  //|     C:             This parameter tells the parser to count the people  |
+  //|                    and families first, so that their tables can be made |
+  //|                    the right size from the start.                       |
+  //|                                                                         |
+  //|     H000:          This parameter tells the parser to work in bounded   |
+  //|                    memory.  Once more than the given number of MB of    |
+  //|                    heap is in use, each person is written whole to a    |
+  //|                    temporary file and only its links and sort keys are  |
+  //|                    kept in memory.                                      |
+  //|                                                                         |
+  //|     Ktag,tag:      This parameter sets the tags that are skipped, along |
+  //|                    with everything under them, in person and family     |
+  //|                    records.  "K" alone skips nothing extra.             |
+  //|                                                                         |
+  //|     E000:          This parameter sets how many DATE and PLAC values are|
+  //|                    remembered so that they are only parsed once.  "E0"  |
+  //|                    turns this off.                                      |
+  //|                                                                         |
+  //|     A:             This parameter tells the parser to work out the write|
+  //|                    order from a table of arrays built after the sort.   |
+  //|                                                                         |
+  //|     O00:           This parameter tells the parser to sort on the given |
+  //|                    number of threads, or on one thread per processor if |
+  //|                    there is no number.                                  |
+  //|                                                                         |
   //| Parameters:                                                             |
   //|                                                                         |
   //|   String argv[]:  An array of strings from the command line.  The first |
   //|                   entry must be the filename, the second must be the    |
-  //|                   start person.  After that comes a list of L, X or I   |
-  //|                   parameters.  These parameters consist of one of the   |
-  //|                   above letters, in either upper or lower case,         |
-  //|                   followed by a number (with no intervening space).     |
-  //|                   The L parameter tells the parser not to               |
-  //|                                                                         |
+  //|                   start person.  After that come the parameters above,  |
+  //|                   in any order.  Each one is a single letter, in either |
+  //|                   upper or lower case, followed by its value (with no   |
+  //|                   intervening space), if it takes one.  The L parameter |
+  //|                   tells the parser not to show living people without    |
+  //|                   the password given with P; I and X override it for    |
+  //|                   single people.                                        |
   //|                                                                         |
   //| Returns:                                                                |
   //|                                                                         |
@@ -200,13 +306,12 @@ public class Parser
       if (argv.length >= 2)
       {
         // The first parameter must be the file name.
-        String src = argv[0].toLowerCase();
-        String dst = src.substring(0, src.lastIndexOf(".ged"));
+        String src = argv[0];
+        String dst = outputName(src);
 
         // The second parameter must be the start person.
         int    startPersonIndex = Integer.parseInt(argv[1]);
         Person startPerson = null;
-        int    count;
 
         restrict = new Restrictions(argv.length - 3);
 
@@ -246,6 +351,44 @@ public class Parser
               case 'V':
                 verbose = true;
                 break;
+              case 'c':
+              case 'C':
+                preScan = true;
+                break;
+              case 'k':
+              case 'K':
+                if (!RecordParser.setSkipTags(param.substring(1)))
+                {
+                  System.out.println ("Unknown tag in " + param);
+                  retCode = retBadParam;
+                }
+                break;
+              case 'a':
+              case 'A':
+                columnar = true;
+                break;
+              case 'e':
+              case 'E':
+                cacheSize = Integer.parseInt(param.substring(1));
+                break;
+              case 'h':
+              case 'H':
+                heapCeiling = Long.parseLong(param.substring(1)) * 1024 * 1024;
+                break;
+              case 'o':
+              case 'O':
+                if (param.length() > 1)
+                  sortThreads = Integer.parseInt(param.substring(1));
+                else
+                  sortThreads = Runtime.getRuntime().availableProcessors();
+                break;
+              case 't':
+              case 'T':
+                if (param.length() > 1)
+                  threadCount = Integer.parseInt(param.substring(1));
+                else
+                  threadCount = Runtime.getRuntime().availableProcessors();
+                break;
               default:
                 retCode = retBadParam;
             } // switch param
@@ -263,15 +406,7 @@ public class Parser
 
         if ((retCode == retOkay) && parseFile(src, restrict))
         {
-          count = people.getCount();
-          for (i = 0; i < count; i++)
-          {
-            if (people.getPerson(i).id == startPersonIndex)
-            {
-              startPerson = people.getPerson(i);
-              break;
-            }
-          }
+          startPerson = people.findPerson(startPersonIndex);
 
           if (startPerson != null)
           {
@@ -287,6 +422,11 @@ public class Parser
           {
             writeDetails();
           }
+
+          if (personStore != null)
+            personStore.close();
+          if (noteStore != null)
+            noteStore.close();
         }
       }
       else
@@ -314,10 +454,19 @@ public class Parser
     catch (Exception e)
     {
       System.out.println("Exception occurred: " + e.getMessage());
-      System.out.println("  On line " + curLineNum + ": <" + curLine + ">");
+      System.out.println("  On line " + curLineNum() + ": <" + curLine() + ">");
       e.printStackTrace();
       retCode = retUnknownError;
     }
+    catch (Error e)
+    {
+      // Like an OutOfMemoryError on a parser thread, thrown again by
+      // ParallelParser.  Report it rather than letting System.exit below
+      // hide it.
+      System.out.println("Error occurred: " + e);
+      e.printStackTrace();
+      retCode = retSystemError;
+    }
     finally
     {
       if (verbose)
@@ -326,7 +475,7 @@ public class Parser
                            + Runtime.getRuntime().totalMemory()
                            + " bytes, free memory: "
                            + Runtime.getRuntime().freeMemory()
-                           + " bytes");
+                           + " bytes, " + namePool.stats());
       }
       if (retCode == 0)
       {
@@ -345,460 +494,215 @@ public class Parser
   public static boolean parseFile (String       source,
                                    Restrictions restrict) throws FileNotFoundException, IOException
   {
-    boolean ret = false;
-    Person  curPerson;
-    int     i;
+    boolean       ret = false;
+    long          startTime;
+    long          lines;
+    GedcomDecoder decoder;
+    InputStream   input;
+    ParseErrors   errors;
+    ValueCache    dateCache;
+    ValueCache    placeCache;
 
     try
     {
-      String token;
-
-      people = new PeopleList();
+      startTime = System.currentTimeMillis();
 
-      SrcStream = new BufferedReader (new FileReader (source));
-      nextLine();
+      if (heapCeiling > 0)
+        personStore = new PersonStore (heapCeiling);
 
-      while (tokenizer != null)
+      if (preScan)
       {
-        if (curLevel == 0)
-        {
-          // This is the start of a new person, family, or something
-          token = tokenizer.nextToken();
-          if (token.startsWith ("@I"))
-            parsePerson (indexFromIdToken(token), restrict);
-          else if (token.startsWith ("@F"))
-            parseFamily (indexFromIdToken(token));
-          else
-            nextLine();
-        }
-        else
-          nextLine();
+        RecordCounts counts = RecordCounts.scan (new GedcomDecoder().open (openSource (source)));
+        people = new PeopleList (counts.people, counts.families);
+        if (verbose)
+          System.out.println("Counted " + counts.people + " people and " + counts.families +
+                             " families in " + (System.currentTimeMillis() - startTime) + " ms");
       }
+      else
+        people = new PeopleList();
 
-      people.sort();
-      ret = true;
-    }
-    catch (ArrayIndexOutOfBoundsException e)
-    {
-      System.out.println("parseFile: ArrayIndexOutOfBoundsException: " + e.getMessage() + ", curLine(" + curLineNum + ") = <" + curLine + ">");
-      e.printStackTrace();
-    }
-    catch (NullPointerException e)
-    {
-      System.out.println("parseFile: NullPointerException: " + e.getMessage() + ", curLine = <" + curLine + ">");
-      e.printStackTrace();
-    }
-    catch (NumberFormatException e)
-    {
-      System.out.println("parseFile: NumberFormatException: " + e.getMessage() + ", curLine = <" + curLine + ">");
-      e.printStackTrace();
-    }
-
-    return ret;
-  }
-
-  static void parsePerson (int          personNum,
-                           Restrictions restrict) throws IOException
-  {
-    try
-    {
-      Person person;
-
-      person = new Person();
-      people.setPerson(person, personNum);
-      person.id = personNum;
-      person.includeDetails = includeDetails;
+      if (includeDetails || createHtmlDetails)
+        noteStore = new NoteStore ();
 
+      decoder = new GedcomDecoder();
+      input   = decoder.open (openSource (source));
       if (verbose)
-        System.out.println("Parsing person " + personNum);
+        System.out.println("Character set: " + decoder.name());
 
-      nextLine();
+      dateCache  = new ValueCache (cacheSize);
+      placeCache = new ValueCache (cacheSize);
 
-      while ((tokenizer != null) &&
-             (curLevel  != 0))
+      if (threadCount > 0)
       {
-        if (curLevel == 1)
-        {
-          String dataType = tokenizer.nextToken();
-
-          if (dataType.compareTo("NAME") == 0)
-          {
-            parseName(person);
-          }
-          else if (dataType.compareTo("BIRT") == 0)
-          {
-            person.addEvent(person.birth = parseEvent("Birth", null));
-            person.hide = restrict.hide(person);
-          }
-          else if (dataType.compareTo("DEAT") == 0)
-          {
-            person.addEvent(person.death = parseEvent("Death", null));
-          }
-          else if (dataType.compareTo("CHR") == 0)
-          {
-            person.addEvent(parseEvent("Christened", null));
-          }
-          else if (dataType.compareTo("NOTE") == 0)
-          {
-            person.addNote(parseNote(restOfLine()));
-          }
-          else if (dataType.compareTo("TITL") == 0)
-          {
-            person.title = restOfLine();
-            nextLine();
-          }
-          else if (dataType.compareTo("FAMC") == 0)
-          {
-            if (person.preferredFamily == -1)
-            {
-              // This is the first FAMC record, so it represents the
-              // preferred family.
-
-              String famId;
-
-              famId = tokenizer.nextToken();
-              if (famId.startsWith ("@F"))
-              {
-                person.preferredFamily = indexFromIdToken(famId);
-              }
-            }
-            nextLine();
-          }
-          else if (dataType.compareTo("SEX") == 0)
-          {
-            String sex = tokenizer.nextToken();
-            if (sex.startsWith ("F"))
-              person.sex = Person.female;
-            else
-              person.sex = Person.male;
-            nextLine();
-          }
-          else if (dataType.startsWith("FAM"))
-          {
-            nextLine();   // Skips these.
-          }
-          else
-          {
-            person.addEvent(parseEvent(null, restOfLine()));
-          }
-        }
-        else
-          nextLine();
+        errors = new ParseErrors();
+        lines  = ParallelParser.parse (input, decoder.encoding(), restrict, people, threadCount, errors,
+                                       dateCache, placeCache);
+      }
+      else
+      {
+        RecordParser parser;
+
+        // The file is read and split into lines on another thread, while
+        // this one parses the lines.
+        lineReader = new LineReader (input);
+        scanner = new GedcomScanner (lineReader, decoder);
+        parser  = new RecordParser (scanner, restrict, people, dateCache, placeCache);
+        parser.parseAll();
+        people.resolveLinks (parser.links, 0, null);
+        people.finishLinks();
+        people.dateCount += parser.dateCount;
+        lines  = scanner.lineNum;
+        errors = scanner.errors;
       }
 
-      // Combine first and last name into a single string
-      person.fullName = ((person.firstName != null) ? person.firstName : "???") + " " +
-                        ((person.lastName  != null) ? person.lastName  : "???");
-    }
-    catch (NumberFormatException e)
-    {
-      String description;
-      description =  "parsePerson: NumberFormatException: " + e.getMessage();
-      description += "curLine = <" + curLine + ">";
-      System.out.println(description);
-      e.printStackTrace();
-      nextLine();         // Recover by skipping to the next line and returning
-    }
-  }
-
-  // This routine breaks a full name into a first name and a last name
-  static void parseName (Person person) throws IOException
-  {
-    String name        = null;
-    int    firstSlash  = 0;
-    int    secondSlash = 0;
-
-    try
-    {
-      name        = restOfLine();
-      firstSlash  = name.indexOf("/");
-      secondSlash = name.indexOf("/", firstSlash+1);
-
-      person.lastName  = name.substring(firstSlash+1, secondSlash);
-      while ((firstSlash > 0) &&
-             (name.charAt(firstSlash - 1) == ' '))  // trim off some spaces that some gedcom files have
-        firstSlash--;
-      person.firstName = name.substring(0, firstSlash);
+      if (errors.total() > 0)
+        errors.printSummary (System.out);
 
-      if (person.firstName.length() == 0)
-        person.firstName = null;
-      if (person.lastName.length() == 0)
-        person.lastName = null;
+      if (verbose)
+      {
+        printRate ("Parsed", lines, System.currentTimeMillis() - startTime);
+        if (lineReader != null)
+          lineReader.printStats (System.out);
+        people.printGrowth();
+        GedcomDate.printMemory (System.out, people.dateCount);
+        dateCache.printStats (System.out, "Date");
+        placeCache.printStats (System.out, "Place");
+        placeTable.printStats (System.out);
+        eventArena.printStats (System.out);
+        if (personStore != null)
+          System.out.println("Spilled " + personStore.spilled + " people, " +
+                             personStore.length() + " bytes, to disk");
+        if (noteStore != null)
+          System.out.println("Notes: " + noteStore.length() + " bytes on disk");
+      }
 
-      nextLine();
+      people.sort(sortThreads);
+      if (verbose)
+        people.printSortStats();
 
-      while (curLevel >= 2)
+      // In bounded memory mode the list made its table when it was sorted
+      if (columnar && (personStore == null))
       {
-        if (curLevel == 2)
-        {
-          String dataType = tokenizer.nextToken();
-
-          if (dataType.compareTo("NSFX") == 0)
-            person.nameSuffix = restOfLine();
-        }
-        nextLine();
+        people.table = PersonTable.build (people);
+        if (verbose)
+          people.table.printComparison (people, System.out);
       }
+
+      ret = true;
     }
-    catch (StringIndexOutOfBoundsException e)
+    catch (ArrayIndexOutOfBoundsException e)
     {
-      System.out.println("parseName: StringIndexOutOfBoundsException: " + e.getMessage());
-      System.out.println("  curLine = <" + curLine + ">");
-      System.out.println("  name    = <" + name + ">");
-      System.out.println("  firstSlash  = " + firstSlash);
-      System.out.println("  secondSlash = " + secondSlash);
+      System.out.println("parseFile: ArrayIndexOutOfBoundsException: " + e.getMessage() + ", curLine(" + curLineNum() + ") = <" + curLine() + ">");
       e.printStackTrace();
     }
     catch (NullPointerException e)
     {
-      System.out.println("parseName: NullPointerException: " + e.getMessage());
+      System.out.println("parseFile: NullPointerException: " + e.getMessage() + ", curLine = <" + curLine() + ">");
       e.printStackTrace();
     }
+    finally
+    {
+      if (scanner != null)
+        scanner.close();
+    }
+
+    return ret;
   }
 
-  static GedcomEvent parseEvent(String eventType, String eventValue) throws IOException
+  // Opens the gedcom file.  A gzip file, or a zip file like a GEDZIP
+  // archive, is recognized by its first bytes and inflated as it is read.
+  // The inflating is done on a thread of its own, which hands the bytes to
+  // the parser a block at a time, so inflating and parsing overlap.
+  static InputStream openSource (String source) throws IOException
   {
-    GedcomEvent event = new GedcomEvent();
+    PushbackInputStream in;
+    byte                magic[] = new byte[4];
+    int                 len = 0;
+    int                 count;
 
-    event.setType(eventType);
-    event.setValue(eventValue);
-    nextLine();
+    in = new PushbackInputStream (new FileInputStream (source), magic.length);
 
-    while (curLevel >= 2)
-    {
-      if (curLevel == 2)
-      {
-        String dataType = tokenizer.nextToken();
-
-        if (dataType.compareTo("DATE") == 0)
-          event.setDate(restOfLine());
-        else if (dataType.compareTo("PLAC") == 0)
-          event.setPlace(restOfLine());
-        else if (dataType.compareTo("TYPE") == 0)
-          event.setType(restOfLine());
-      }
-      nextLine();
-    }
+    while ((len < magic.length) && ((count = in.read (magic, len, magic.length - len)) >= 0))
+      len += count;
+    in.unread (magic, 0, len);
+
+    if ((len >= 2) && ((magic[0] & 0xFF) == 0x1F) && ((magic[1] & 0xFF) == 0x8B))
+      return new ThreadedInputStream (new GZIPInputStream (in, 65536));
+
+    if ((len == 4) && (magic[0] == 'P') && (magic[1] == 'K') && (magic[2] == 3) && (magic[3] == 4))
+      return new ThreadedInputStream (openZipEntry (new ZipInputStream (in), source));
 
-    return event;
+    return in;
   }
 
-  static String parseNote(String note) throws IOException
+  // Moves a zip stream to the gedcom file in it.  In a GEDZIP archive
+  // that's the entry named gedcom.ged.  In any other zip file it's the
+  // first entry whose name ends with .ged.
+  private static InputStream openZipEntry (ZipInputStream zip,
+                                           String         source) throws IOException
   {
-    String ret = note;
+    ZipEntry entry;
+    String   name;
 
-    nextLine();
-
-    while (curLevel >= 2)
+    while ((entry = zip.getNextEntry()) != null)
     {
-      // Notes are not to be implemented until later.
-//      if (curLevel == 2)
-//      {
-//        String dataType = tokenizer.nextToken();
-
-//        if (dataType.compareTo("CONT") == 0)
-//          ret += '\n' + restOfLine();
-//      }
-      nextLine();
+      name = entry.getName().toLowerCase();
+      if (!entry.isDirectory() &&
+          (name.equals ("gedcom.ged") || name.endsWith (".ged")))
+        return zip;
     }
 
-    return ret;
+    zip.close();
+    throw new FileNotFoundException ("No gedcom file in " + source);
   }
 
-  // parseFamily: This routine parses a family record in a GEDCOM file.  It
-  //              assumes that the husband and wife are listed before any of
-  //              the children.
-  static void parseFamily (int familyNum) throws IOException
+  // The data files are named after the gedcom file, without the extensions
+  // that say what kind of file it is, so "tree.ged", "tree.ged.gz",
+  // "tree.gdz" and "tree.zip" all give "tree".  The name is lower case,
+  // as it always has been.
+  static String outputName (String source)
   {
-    Family family = null;
-    Person father = null;
-    Person mother = null;
-    Person child  = null;
-
-    if (verbose)
-      System.out.println("Parsing family " + familyNum);
-
-    family = new Family();
-    people.setFamily(family);
-    family.id = familyNum;
+    String  name = source.toLowerCase();
+    String  extensions[] = { ".gz", ".zip", ".gdz", ".gedcom", ".ged" };
+    boolean found = true;
+    int     i;
 
-    try
+    while (found)
     {
-//      doDebug = true;
-      nextLine();
-
-      while ((tokenizer != null) &&
-             (curLevel  != 0))
+      found = false;
+      for (i = 0; i < extensions.length; i++)
       {
-        if (curLevel == 1)
+        if (name.endsWith (extensions[i]) && (name.length() > extensions[i].length()))
         {
-          String dataType = tokenizer.nextToken();
-
-          if (dataType.compareTo("HUSB") == 0)
-          {
-            father = family.father = people.getPerson(indexFromIdToken(tokenizer.nextToken()));
-            if (father != null)
-            {
-              father.addFamily (family);
-            }
-            nextLine();
-          }
-          else if (dataType.compareTo("WIFE") == 0)
-          {
-            mother = family.mother = people.getPerson(indexFromIdToken(tokenizer.nextToken()));
-            if (mother != null)
-            {
-              mother.addFamily(family);
-            }
-            nextLine();
-          }
-          else if (dataType.compareTo("CHIL") == 0)
-          {
-            child = people.getPerson(indexFromIdToken(tokenizer.nextToken()));
-            if (child != null)
-            {
-              // Just in case a preferred family isn't specified, or the
-              // specified preferred family doesn't exist, if the child has
-              // not already been assigned to a family, assign it now.
-              // However, even if the child has already been assigned to a
-              // family, if this is the child's preferred family, re-assign it.
-              if ((child.preferredFamily == family.id) ||
-                  (child.childOfFamily   == null))
-              {
-                child.childOfFamily = family;
-                child.father = father;
-                child.mother = mother;
-              }
-              family.addChild (child);
-
-              //dead-code  else
-              //dead-code  {
-              //dead-code    Enumeration enumChildren;
-              //dead-code    Person      tempChild;
-              //dead-code  
-              //dead-code    // The child is a child of two different families.
-              //dead-code    // Print out an error message
-              //dead-code  
-              //dead-code    System.err.println("\nError: " + child.fullName + "(" + child.id + ") is a child of more than one family:\n");
-              //dead-code  
-              //dead-code    // Family 1
-              //dead-code    System.err.println("       Family(" + child.childOfFamily.id + ")");
-              //dead-code    if (child.father != null)
-              //dead-code      System.err.println("          Father: " + child.father.fullName);
-              //dead-code    if (child.mother != null)
-              //dead-code      System.err.println("          Mother: " + child.mother.fullName);
-              //dead-code    enumChildren = child.childOfFamily.children.elements();
-              //dead-code    while (enumChildren.hasMoreElements())
-              //dead-code    {
-              //dead-code      tempChild = (Person) ((SortableHandle)enumChildren.nextElement()).getContainer();
-              //dead-code      System.err.println("          Child:  " + tempChild.fullName);
-              //dead-code    }
-              //dead-code    System.err.println("");  // blank line
-              //dead-code  
-              //dead-code    // Family 2
-              //dead-code    System.err.println("       Family(" + family.id + ")");
-              //dead-code    if (father != null)
-              //dead-code      System.err.println("          Father: " + father.fullName);
-              //dead-code    if (mother != null)
-              //dead-code      System.err.println("          Mother: " + mother.fullName);
-              //dead-code    enumChildren = family.children.elements();
-              //dead-code    while (enumChildren.hasMoreElements())
-              //dead-code    {
-              //dead-code      tempChild = (Person) ((SortableHandle)enumChildren.nextElement()).getContainer();
-              //dead-code      System.err.println("          Child:  " + tempChild.fullName);
-              //dead-code    }
-              //dead-code    System.err.println("          Child:  " + child.fullName);
-              //dead-code  } // end of child of two families error
-            } // end of if child != null
-            nextLine();
-          } // end of if dataType == CHIL
-          else if (dataType.compareTo("MARR") == 0)
-          {
-            GedcomEvent marriage;
-
-            marriage = parseEvent("Marriage", null);
-
-            family.marriage = marriage;
-
-            if (father != null)
-            {
-              marriage.setValue((mother != null) ? mother.fullName : null);
-              father.addEvent(marriage);
-              if (mother != null)
-                marriage = new GedcomEvent(marriage);
-            }
-
-            if (mother != null)
-            {
-              marriage.setValue((father != null) ? father.fullName : null);
-              mother.addEvent(marriage);
-            }
-          }
-          else
-            nextLine();
+          name  = name.substring (0, name.length() - extensions[i].length());
+          found = true;
         }
-        else
-          nextLine();
       }
     }
-    catch (NumberFormatException e)
-    {
-      String description;
-      description  = "parseFamily: NumberFormatException: " + e.getMessage();
-      description += "curLine = <" + curLine + ">";
-      System.out.println(description);
-      e.printStackTrace();
-      curLine = SrcStream.readLine();  // Recover by skipping to the next line and returning
-    }
+
+    return name;
   }
 
-  static private void nextLine() throws IOException
+  // The line being parsed, used in error reporting only.  There is no
+  // single current line when parsing on several threads.
+  static String curLine ()
   {
-    curLineNum++;
-    while (((curLine = SrcStream.readLine()) != null) &&
-           !(tokenizer = new StringTokenizer(curLine)).hasMoreTokens())
-      curLineNum++;
-
-    if (curLine != null)
-    {
-      try
-      {
-        curLevel = Integer.parseInt(tokenizer.nextToken());
-      }
-      catch (NumberFormatException e)
-      {
-        nextLine();
-      }
-    }
-    else
-    {
-      curLevel = 0;
-      tokenizer = null;
-    }
+    return (scanner != null) ? scanner.lineText() : null;
   }
 
-  static private int indexFromIdToken(String idToken)
+  static int curLineNum ()
   {
-    String temp = idToken.substring (2, idToken.indexOf('@', 2));
-    return Integer.parseInt (temp);
+    return (scanner != null) ? scanner.lineNum : 0;
   }
 
-  static private String restOfLine()
+  // Prints how many lines were handled and how fast.  Used to compare the
+  // different ways of reading a gedcom file.
+  static void printRate (String what, long lines, long millis)
   {
-    String ret = null;
-
-    while (tokenizer.hasMoreTokens())
-    {
-      if (ret == null)
-        ret = tokenizer.nextToken();
-      else
-        ret += " " + tokenizer.nextToken();
-    }
-
-    return ret;
+    System.out.println(what + " " + lines + " lines in " + millis + " ms (" +
+                       ((millis > 0) ? (lines * 1000 / millis) : lines) + " lines/sec)");
   }
 
-
-
   //+-------------------------------------------------------------------------+
   //| These methods are used to write the data file                           |
   //+-------------------------------------------------------------------------+
@@ -863,7 +767,7 @@ public class Parser
     {
       for (i = 0; i < numPeople; i++)
       {
-        person = people.getPerson(i);
+        person = people.readPerson(i);
 
         if (person != null)
         {
@@ -874,6 +778,8 @@ public class Parser
           {
             curFile.write (buildDetailsHtmlHeader (person));
             curFile.write (buildDetailsHtmlBody   (person));
+            writeDetailsHtmlNotes (person, curFile);
+            curFile.write (buildDetailsHtmlFooter ());
             curFile.close();
           }
           else
@@ -941,7 +847,23 @@ public class Parser
 //    "  window.name = 'GooGooBar';   \n" +
 //    "</SCRIPT>   \n" +
 //    "   \n" +
-    person.toHtml() +
+    person.toHtml();
+  }
+
+  // The notes are copied from the note store straight into the file
+  private static void writeDetailsHtmlNotes (Person person, Writer out) throws IOException
+  {
+    if (person.noteOffset != -1)
+    {
+      out.write ("   <p>");
+      noteStore.writeHtml (person.noteOffset, person.noteLength, out);
+      out.write ("</p>\n");
+    }
+  }
+
+  private static String buildDetailsHtmlFooter ()
+  {
+    return
     "   \n" +
     "<APPLET code     = \"zaluc.geneo.Geneo.class\"   \n" +
     "        codebase = \"../../javabin.20\"   \n" +
@@ -0,0 +1,213 @@
+package zaluc.gparser200;
+
+import java.io.*;
+import java.util.*;
+
+//+-- Class ParserBenchmark --------------------------------------------------+
+//|                                                                           |
+//| Syntax:       public class ParserBenchmark                                |
+//|                                                                           |
+//| Description:  The ParserBenchmark class times the different ways the      |
+//|               parser can read a gedcom file so they can be compared on    |
+//|               real data.  Each benchmark makes a full pass over the file  |
+//|               and prints the number of lines handled per second.          |
+//|                                                                           |
+//|               Usage:  java zaluc.gparser200.ParserBenchmark file.ged      |
+//|                                                                           |
+//| Methods:      public static void main           (String argv[])           |
+//|                                                                           |
+//|               static long        tokenizerPass  (String source)           |
+//|                                                                           |
+//|               static long        scannerPass    (InputStream source)      |
+//|                                                                           |
+//|               static void        dispatchBench  (String source)           |
+//|                                                                           |
+//|---------------------------------------------------------------------------+
+
+public class ParserBenchmark
+{
+  public static void main(String argv[])
+  {
+    long startTime;
+    long lines;
+    int  pass;
+
+    if (argv.length < 1)
+    {
+      System.out.println("Please specify a gedcom file");
+      System.exit(1);
+    }
+
+    try
+    {
+      // Run each benchmark twice so that the second run is made with a
+      // warm page cache and a warm JIT.
+      for (pass = 1; pass <= 2; pass++)
+      {
+        System.out.println("Pass " + pass + ":");
+
+        startTime = System.currentTimeMillis();
+        lines = tokenizerPass(argv[0]);
+        Parser.printRate("   Tokenizer:", lines, System.currentTimeMillis() - startTime);
+
+        startTime = System.currentTimeMillis();
+        lines = scannerPass(new FileInputStream(argv[0]));
+        Parser.printRate("   Scanner:  ", lines, System.currentTimeMillis() - startTime);
+      }
+
+      dispatchBench(argv[0]);
+    }
+    catch (IOException e)
+    {
+      System.out.println("IOException occurred: " + e.getMessage());
+      System.exit(2);
+    }
+  }
+
+  // This is the way the parser used to read lines:  a StringTokenizer for
+  // each line, Integer.parseInt for the level and the rest of the line
+  // rebuilt one token at a time.
+  static long tokenizerPass(String source) throws IOException
+  {
+    BufferedReader  in = new BufferedReader (new FileReader (source));
+    StringTokenizer tokenizer;
+    String          line;
+    String          tag;
+    String          value;
+    long            lines = 0;
+    int             level;
+
+    while ((line = in.readLine()) != null)
+    {
+      lines++;
+      tokenizer = new StringTokenizer(line);
+      if (!tokenizer.hasMoreTokens())
+        continue;
+      try
+      {
+        level = Integer.parseInt(tokenizer.nextToken());
+      }
+      catch (NumberFormatException e)
+      {
+        continue;
+      }
+      if (!tokenizer.hasMoreTokens())
+        continue;
+
+      tag = tokenizer.nextToken();
+      if (tag.startsWith("@") && tokenizer.hasMoreTokens())
+        tag = tokenizer.nextToken();
+
+      value = null;
+      while (tokenizer.hasMoreTokens())
+      {
+        if (value == null)
+          value = tokenizer.nextToken();
+        else
+          value += " " + tokenizer.nextToken();
+      }
+    }
+
+    in.close();
+    return lines;
+  }
+
+  // The GedcomScanner only creates a String when a value is wanted, which
+  // is the case for the DATE lines here.
+  static long scannerPass(InputStream source) throws IOException
+  {
+    GedcomDecoder decoder = new GedcomDecoder ();
+    GedcomScanner scanner = new GedcomScanner (decoder.open (source), decoder);
+    String        value;
+
+    while (scanner.next())
+    {
+      if ((scanner.level == 2) && scanner.tagIs("DATE"))
+        value = scanner.value();
+    }
+
+    scanner.close();
+    return scanner.lineNum;
+  }
+
+  // Times how long it takes to pick the handler for the level 1 lines of
+  // the INDI records, first with the chain of String compares that
+  // parsePerson used to have, then with the GedcomTags code and the handler
+  // table.  The tags are collected first so that only the dispatch is timed.
+  static void dispatchBench(String source) throws IOException
+  {
+    GedcomScanner scanner = new GedcomScanner (new FileInputStream (source));
+    int           maxTags = 1000000;
+    String        tagStrings[] = new String[maxTags];
+    byte          tagBytes[][] = new byte[maxTags][];
+    boolean       inPerson = false;
+    int           count = 0;
+    int           sink  = 0;
+    int           handler;
+    long          startTime;
+    long          oldTime, newTime;
+    int           rep, i;
+
+    while (scanner.next() && (count < maxTags))
+    {
+      if (scanner.level == 0)
+        inPerson = scanner.tagIs("INDI");
+      else if (inPerson && (scanner.level == 1))
+      {
+        tagStrings[count] = scanner.tagText();
+        tagBytes[count]   = tagStrings[count].getBytes("ISO-8859-1");
+        count++;
+      }
+    }
+    scanner.close();
+
+    if (count == 0)
+      return;
+
+    oldTime = newTime = Long.MAX_VALUE;
+    for (rep = 0; rep < 10; rep++)
+    {
+      startTime = System.nanoTime();
+      for (i = 0; i < count; i++)
+      {
+        String dataType = tagStrings[i];
+
+        if (dataType.compareTo("NAME") == 0)
+          handler = RecordParser.NAME;
+        else if (dataType.compareTo("BIRT") == 0)
+          handler = RecordParser.BIRTH;
+        else if (dataType.compareTo("DEAT") == 0)
+          handler = RecordParser.DEATH;
+        else if (dataType.compareTo("CHR") == 0)
+          handler = RecordParser.EVENT;
+        else if (dataType.compareTo("NOTE") == 0)
+          handler = RecordParser.NOTE;
+        else if (dataType.compareTo("TITL") == 0)
+          handler = RecordParser.TITLE;
+        else if (dataType.compareTo("FAMC") == 0)
+          handler = RecordParser.FAMC;
+        else if (dataType.compareTo("SEX") == 0)
+          handler = RecordParser.SEX;
+        else if (dataType.startsWith("FAM"))
+          handler = RecordParser.SKIP;
+        else
+          handler = RecordParser.DEFAULT;
+        sink += handler;
+      }
+      oldTime = Math.min(oldTime, System.nanoTime() - startTime);
+
+      startTime = System.nanoTime();
+      for (i = 0; i < count; i++)
+      {
+        handler = RecordParser.personHandlers[GedcomTags.lookup(tagBytes[i], 0, tagBytes[i].length)];
+        sink += handler;
+      }
+      newTime = Math.min(newTime, System.nanoTime() - startTime);
+    }
+
+    // The checksum keeps the JIT from throwing the loops away
+    System.out.println("Dispatch of " + count + " INDI lines (checksum " + sink + "):");
+    System.out.println("   Compare chain: " + (oldTime / count) + "." + (oldTime * 10 / count) % 10 + " ns/line");
+    System.out.println("   Tag table:     " + (newTime / count) + "." + (newTime * 10 / count) % 10 + " ns/line");
+  }
+}
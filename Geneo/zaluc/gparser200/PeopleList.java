@@ -3,7 +3,9 @@ package zaluc.gparser200;
 import java.awt.*;
 import java.lang.*;
 import java.io.*;
+import java.text.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import zaluc.utils.*;
 
@@ -24,14 +26,183 @@ import zaluc.utils.*;
 
 class PeopleList
 {
-  private SortableVector peopleVect;
+  private Vector         peopleVect;         // By the index of the person's xref
+  private SortedView     peopleView;         // The people in sorted order, once sorted
   private Vector         familyVect;
   private int            familyCount;
 
+  private int            peopleCapacity;     // Initial sizes, for printGrowth
+  private int            familyCapacity;
+
+  // Dense indices for the xrefs of people and families.  A person is kept
+  // at the index of its xref until the list is sorted.
+  XrefMap                personIds;
+  XrefMap                familyIds;
+
+  long                   dateCount = 0;      // Dates parsed, for the memory statistics
+
+  // The same people and families as columns of arrays, once the list has
+  // been sorted, if the A parameter was given.  writeFrom then works out
+  // its order from the table.
+  PersonTable            table;
+
+  // In bounded memory mode, the index that stands in for the people and
+  // families, and peopleVect and familyVect stay empty.  The table is
+  // always made from it.
+  PersonIndex            personIndex;
+
+  long                   sortComparisons = 0;  // Counts for printSortStats
+  long                   sortMillis      = 0;
+  int                    sortThreads     = 1;
+
+  //+-- Class SortBatch ------------------------------------------------------+
+  //| Sorts the children of the families, or the families of the people,    |
+  //| from first to last.  On a ForkJoinPool, a batch of more than           |
+  //| BATCH_SIZE splits in two, so each task sorts a good number of short    |
+  //| lists instead of one.  The arrays that the lists are sorted in are     |
+  //| kept from one list to the next.                                        |
+  //+-------------------------------------------------------------------------+
+  private static class SortBatch extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    static final int BATCH_SIZE = 1024;
+
+    Family           families[];    // Families whose children are sorted, or null
+    Person           people[];      // People whose families are sorted, or null
+    long             familyKeys[];  // When each family started, by index
+    int              first;
+    int              last;
+    boolean          split;         // Split into smaller batches
+    long             comparisons = 0;
+
+    int              order[];
+    long             keys[];
+    Object           items[];
+
+    SortBatch (Family families[], Person people[], long familyKeys[],
+               int first, int last, boolean split)
+    {
+      this.families   = families;
+      this.people     = people;
+      this.familyKeys = familyKeys;
+      this.first      = first;
+      this.last       = last;
+      this.split      = split;
+    }
+
+    protected void compute ()
+    {
+      SortBatch left;
+      SortBatch right;
+      int       middle;
+      int       i;
+
+      if (split && (last - first > BATCH_SIZE))
+      {
+        middle = (first + last) >>> 1;
+        left   = new SortBatch (families, people, familyKeys, first, middle, true);
+        right  = new SortBatch (families, people, familyKeys, middle, last, true);
+        invokeAll (left, right);
+        comparisons = left.comparisons + right.comparisons;
+        return;
+      }
+
+      for (i = first; i < last; i++)
+      {
+        if (people != null)
+          sortFamilies (people[i].families);
+        else if (families[i] != null)
+        {
+          sortChildren (families[i].children);
+          familyKeys[i] = families[i].getStartKey();   // The children are sorted first
+        }
+      }
+    }
+
+    private void sortChildren (Vector children)
+    {
+      int count = children.size();
+      int i;
+
+      use (count);
+      for (i = 0; i < count; i++)
+      {
+        items[i] = children.elementAt(i);
+        keys[i]  = ((Person) items[i]).getBirthKey();
+      }
+
+      sortItems (children, count);
+    }
+
+    private void sortFamilies (Vector list)
+    {
+      int count = list.size();
+      int i;
+
+      use (count);
+      for (i = 0; i < count; i++)
+      {
+        items[i] = list.elementAt(i);
+        keys[i]  = familyKeys[((Family) items[i]).index];
+      }
+
+      sortItems (list, count);
+    }
+
+    // Makes sure the arrays can hold count items
+    private void use (int count)
+    {
+      int size = (order != null) ? order.length : 16;
+
+      if ((order == null) || (count > size))
+      {
+        while (size < count)
+          size *= 2;
+        order = new int[size];
+        keys  = new long[size];
+        items = new Object[size];
+      }
+    }
+
+    // Sorts the items by their keys and puts them back in the list in
+    // that order
+    private void sortItems (Vector list, int count)
+    {
+      int i;
+
+      for (i = 0; i < count; i++)
+        order[i] = i;
+
+      comparisons += KeySort.sort (order, count, keys, null);
+
+      for (i = 0; i < count; i++)
+      {
+        list.setElementAt (items[order[i]], i);
+        items[order[i]] = null;
+      }
+    }
+  }
+
   public PeopleList ()
   {
-    peopleVect = new SortableVector (100, 100, Person.compareAlphabetically);
-    familyVect = new Vector (100, 100);
+    this (100, 100);
+  }
+
+  // The tables start out big enough for the given number of people and
+  // families, which RecordCounts can find with a quick pass over the file.
+  // If they do need to grow, they double in size each time, so the total
+  // copying stays proportional to the final size.
+  public PeopleList (int peopleHint, int familyHint)
+  {
+    peopleCapacity = Math.max (peopleHint, 16);
+    familyCapacity = Math.max (familyHint, 16);
+    peopleVect = new Vector (peopleCapacity, 0);
+    familyVect = new Vector (familyCapacity, 0);
+    personIds  = new XrefMap (peopleCapacity);
+    familyIds  = new XrefMap (familyCapacity);
+    if (Parser.personStore != null)
+      personIndex = new PersonIndex (peopleCapacity, familyCapacity);
   }
 
   //+--------------------------------------------------------------+
@@ -40,56 +211,494 @@ class PeopleList
 
   public void setPerson(Person person, int index)
   {
+    if (personIndex != null)
+    {
+      personIndex.setPerson(person, index);
+      return;
+    }
+
     if (index >= peopleVect.size())
       peopleVect.setSize(index+1);
-    peopleVect.setElementAt(person.mainListHandle, index);
+    peopleVect.setElementAt(person, index);
   }
 
   public void setFamily(Family family)
   {
-    familyVect.addElement(family);
     family.index = familyCount++;
+    if (personIndex != null)
+      personIndex.addFamily(family);
+    else
+      familyVect.addElement(family);
+  }
+
+  public int getFamilyCount()
+  {
+    return familyCount;
   }
 
+  // Until the list is sorted, a person is found by the index of its xref.
+  // After that, by its index in the sorted list, which leaves out the
+  // xrefs that had no person.  In bounded memory mode there are no Person
+  // objects to get, see readPerson.
   public Person getPerson(int index)
   {
+    if (peopleView != null)
+      index = (index < peopleView.size()) ? peopleView.row(index) : peopleVect.size();
+
     if (index < peopleVect.size())
-      return (Person) ((SortableHandle) peopleVect.elementAt(index)) .getContainer();
+      return (Person) peopleVect.elementAt(index);
+    else
+      return null;
+  }
+
+  // Returns the person's index in the sorted list, or the index of its
+  // xref if the list hasn't been sorted yet.  The people aren't moved by
+  // the sort, so this comes from the inverse of the sorted order.
+  public int indexOf(Person person)
+  {
+    if (peopleView != null)
+      return peopleView.position(person.xrefIndex);
+    else
+      return person.xrefIndex;
+  }
+
+  // Returns the person at an index in the sorted list.  In bounded memory
+  // mode it is read back from the person store, see PersonIndex.getPerson,
+  // and is only good until the next person is read.
+  public Person readPerson(int index) throws IOException
+  {
+    if (personIndex == null)
+      return getPerson(index);
+    else if (index < getCount())
+      return personIndex.getPerson(index, peopleView, table);
     else
       return null;
   }
 
+  // Returns the person with the given gedcom ID, once the list has been
+  // sorted, or null if there isn't one
+  public Person findPerson(int id) throws IOException
+  {
+    int    count = getCount();
+    Person person;
+    int    i;
+
+    for (i = 0; i < count; i++)
+    {
+      if (table != null)
+      {
+        if (table.ids[i] == id)
+          return readPerson(i);
+      }
+      else if (((person = getPerson(i)) != null) && (person.id == id))
+        return person;
+    }
+
+    return null;
+  }
+
   public Family getFamily(int index)
   {
+    if (personIndex != null)
+      return (index < familyCount) ? personIndex.getFamily(index, peopleView, table) : null;
+
     if (index < familyVect.size())
       return (Family) familyVect.elementAt(index);
     else
       return null;
   }
 
-  public void sort()
+  //+--------------------------------------------------------------+
+  //| Routines for putting together chunks parsed on their own     |
+  //+--------------------------------------------------------------+
+
+  // Adds the people and families from one chunk of the file.  The chunks
+  // must be merged in file order so that families get the same index they
+  // would get if the file were parsed in one piece.  The chunk's own xref
+  // indices are translated to the ones in this list, and the translation
+  // for people is returned so it can be used on the chunk's links.  The
+  // names, events and places are moved from the worker's name pool, event
+  // arena and place table to Parser.namePool, Parser.eventArena and
+  // Parser.placeTable.
+  public int[] merge(RecordParser part)
   {
-    int    i;
+    int    personRemap[] = personIds.internAll(part.personIds);
+    int    familyRemap[] = familyIds.internAll(part.familyIds);
+    int    eventBase     = Parser.eventArena.addAll(part.eventArena, part.eventStart,
+                                                    part.eventEnd, part.stringMap,
+                                                    part.placeMap)
+                           - part.eventStart;
     Person person;
     Family family;
+    int    i;
 
-    /* Sort the people in the list */
-    peopleVect.sort();
+    dateCount += part.dateCount;
 
-    /* For each family, sort the children that they have */
-    for (i = 0; i < familyCount; i++)
-      if ((family = getFamily(i)) != null)
-        family.children.sort();
+    for (i = 0; i < part.newPeople.size(); i++)
+    {
+      person = (Person) part.newPeople.elementAt(i);
+      person.xrefIndex = personRemap[person.xrefIndex];
+      internNames(person);
+      person.moveEvents(eventBase);
+      if (person.preferredFamily != -1)
+        person.preferredFamily = familyRemap[person.preferredFamily];
+      setPerson(person, person.xrefIndex);
+    }
+
+    for (i = 0; i < part.newFamilies.size(); i++)
+    {
+      family = (Family) part.newFamilies.elementAt(i);
+      family.id = familyRemap[family.id];
+      if (family.marriage != null)
+        family.marriage = family.marriage.movePlace(part.placeMap);
+      setFamily(family);
+    }
+
+    return personRemap;
+  }
+
+  // Replaces the names of a person from a worker's name pool with the
+  // copies in Parser.namePool
+  private static void internNames(Person person)
+  {
+    NamePool pool = Parser.namePool;
+
+    person.firstName  = pool.intern(person.firstName);
+    person.lastName   = pool.intern(person.lastName);
+    person.title      = pool.intern(person.title);
+    person.nameSuffix = pool.intern(person.nameSuffix);
+  }
+
+  //+--------------------------------------------------------------+
+  //| Routines for linking families and people together            |
+  //+--------------------------------------------------------------+
+
+  // Makes the links in a LinkTable once every person it refers to has been
+  // added to the list.  The family numbers in the table are relative to
+  // familyBase, which is the index of the first family in the chunk the
+  // table came from.  The person numbers are translated through
+  // personRemap, if there is one.  Links to people that don't exist are
+  // dropped.
+  public void resolveLinks(LinkTable links, int familyBase, int personRemap[])
+  {
+    Family family;
+    Person person;
+    int    count = links.size();
+    int    i;
+
+    if (personIndex != null)
+    {
+      personIndex.resolveLinks(links, familyBase, personRemap);
+      return;
+    }
+
+    for (i = 0; i < count; i++)
+    {
+      family = getFamily(familyBase + links.family(i));
+      if (personRemap != null)
+        person = getPerson(personRemap[links.person(i)]);
+      else
+        person = getPerson(links.person(i));
+
+      switch (links.role(i))
+      {
+        case LinkTable.HUSBAND:
+          family.setFather(person);
+          break;
+        case LinkTable.WIFE:
+          family.setMother(person);
+          break;
+        case LinkTable.CHILD:
+          if (person != null)
+            family.linkChild(person);
+          break;
+      }
+    }
+  }
+
+  // Finishes the linking after every LinkTable has been resolved:  the
+  // children get their parents.  The spouses don't get copies of their
+  // marriage events, since Person shows them from the families.  In
+  // bounded memory mode, the index puts its links in lists instead.
+  public void finishLinks()
+  {
+    Family family;
+    Person person;
+    int    i;
+
+    if (personIndex != null)
+    {
+      personIndex.finishLinks();
+      return;
+    }
 
-    /* For each person, sort the families that they have */
     for (i = 0; i < peopleVect.size(); i++)
-      if ((person = getPerson(i)) != null)
-        person.families.sort();
+    {
+      if (((person = getPerson(i)) != null) &&
+          ((family = person.childOfFamily) != null))
+      {
+        person.father = family.father;
+        person.mother = family.mother;
+      }
+    }
+  }
+
+  // Sorts the people by name, then birth date, the children of each family
+  // by birth date, and the families of each person by when they started.
+  // Rather than comparing the objects, the sort works out a key for each
+  // one first, the rank of each name and the packed birth and family dates,
+  // and sorts arrays of indices by those keys with KeySort, which is stable.
+  // The people without a birth date, and the families without a start
+  // date, come last.
+  //
+  // With a threadCount of more than one, the sort is done on a ForkJoinPool
+  // of that many threads.  The people are sorted on it by their SortedView,
+  // and the children of the families, and then the families of the people,
+  // are sorted in batches of SortBatch.BATCH_SIZE lists.  The order is the
+  // same either way.
+  //
+  // In bounded memory mode, the people are sorted in the same way by the
+  // keys in the PersonIndex, which then sorts the children and families
+  // on this thread, and the table is made from it.
+  public void sort(int threadCount)
+  {
+    long             startTime = System.currentTimeMillis();
+    int              rank[];
+    ForkJoinPool     pool      = (threadCount > 1) ? new ForkJoinPool (threadCount) : null;
+    int              rows[];
+    Person           people[]  = null;
+    Family           families[];
+    long             keys[];
+    int              births[];
+    int              lastNames[];
+    int              firstNames[];
+    long             familyKeys[];
+    int              count;
+    int              i;
+    Person           person;
+
+    /* Sort the people in the list by last name, first name and birth date. */
+    /* The people stay where they are, at the index of their xref, and the  */
+    /* sorted order is kept in peopleView.                                  */
+    rows       = new int[getCount()];
+    births     = new int[rows.length];
+    lastNames  = new int[rows.length];     // IDs in the name pool, like rows
+    firstNames = new int[rows.length];
+    count      = 0;
+    if (personIndex != null)
+    {
+      for (i = 0; i < rows.length; i++)
+      {
+        if (personIndex.ids[i] != PersonIndex.NONE)
+        {
+          lastNames[count]  = personIndex.lastNames[i];
+          firstNames[count] = personIndex.firstNames[i];
+          births[i]         = personIndex.birthKeys[i];
+          rows[count++]     = i;
+        }
+      }
+    }
+    else
+    {
+      people = new Person[rows.length];
+      for (i = 0; i < rows.length; i++)
+      {
+        if ((person = people[count] = (Person) peopleVect.elementAt(i)) != null)
+        {
+          lastNames[count]  = Parser.namePool.id (person.lastName);
+          firstNames[count] = Parser.namePool.id (person.firstName);
+          births[i]         = person.getBirthKey();
+          rows[count++]     = i;
+        }
+      }
+    }
+
+    rank = rankNames (lastNames, firstNames, count);
+    keys = new long[rows.length];
+    for (i = 0; i < count; i++)
+      keys[rows[i]] = ((long) nameRank (rank, lastNames[i]) << 32) | nameRank (rank, firstNames[i]);
+
+    peopleView  = new SortedView (rows, count, rows.length);
+    sortThreads = (pool != null) ? threadCount : 1;
+    try
+    {
+      sortComparisons += peopleView.sort (keys, births, pool);
+
+      if (personIndex != null)
+      {
+        sortComparisons += personIndex.sortLinks();
+        table = PersonTable.build (personIndex, peopleView);
+        personIndex.dropLinks();
+      }
+      else
+      {
+        /* For each family, sort the children that they have by birth date, */
+        /* then work out when the family started for sorting the families   */
+        families = new Family[familyVect.size()];
+        familyVect.copyInto (families);
+        familyKeys = new long[families.length];
+        sortComparisons += sortBatch (new SortBatch (families, null, familyKeys, 0, families.length,
+                                                     pool != null), pool);
+
+        /* For each person, sort the families that they have */
+        sortComparisons += sortBatch (new SortBatch (null, people, familyKeys, 0, count,
+                                                     pool != null), pool);
+      }
+    }
+    finally
+    {
+      if (pool != null)
+        pool.shutdown();
+    }
+
+    sortMillis += System.currentTimeMillis() - startTime;
+  }
+
+  public void printSortStats()
+  {
+    System.out.println("Sorted " + getCount() + " people and " + familyCount + " families on " +
+                       sortThreads + ((sortThreads == 1) ? " thread: " : " threads: ") +
+                       sortComparisons + " comparisons, " + sortMillis + " ms");
   }
 
+  // Runs the batch on the pool, or on this thread if there's no pool, and
+  // returns the number of comparisons it made
+  private static long sortBatch(SortBatch batch, ForkJoinPool pool)
+  {
+    if (pool != null)
+      pool.invoke (batch);
+    else
+      batch.compute();
+
+    return batch.comparisons;
+  }
+
+  //+--------------------------------------------------------------+
+  //| Routines for working out the sort keys                       |
+  //+--------------------------------------------------------------+
+
+  // Gives each first and last name of the people a rank, by its ID in the
+  // name pool, so two names can be compared as ints.  The names of the
+  // people are given by their IDs, -1 for no name.  The pool also holds
+  // titles and suffixes, which are left out.  The names are put in
+  // collation order, which ignores case and accents, and names the
+  // collator finds equal are put in the order of their chars, so each name
+  // still has a rank of its own.  A collation key is only made once for
+  // each name, however many people have it.  The collator is always the
+  // English one, so the order of the output doesn't depend on where it's
+  // run.
+  private int[] rankNames(int lastNames[], int firstNames[], int count)
+  {
+    NamePool     pool     = Parser.namePool;
+    Collator     collator = Collator.getInstance (Locale.ENGLISH);
+    int          rank[]   = new int[pool.size()];
+    boolean      used[]   = new boolean[rank.length];
+    String       names[];
+    CollationKey keys[];
+    int          nameCount = 0;
+    int          id;
+    int          i;
+
+    collator.setStrength (Collator.PRIMARY);
+    collator.setDecomposition (Collator.CANONICAL_DECOMPOSITION);
+
+    for (i = 0; i < count; i++)
+    {
+      if (((id = lastNames[i]) >= 0) && !used[id])
+      {
+        used[id] = true;
+        nameCount++;
+      }
+      if (((id = firstNames[i]) >= 0) && !used[id])
+      {
+        used[id] = true;
+        nameCount++;
+      }
+    }
+
+    names = new String[nameCount];
+    keys  = new CollationKey[nameCount];
+    nameCount = 0;
+    for (i = 0; i < used.length; i++)
+      if (used[i])
+        names[nameCount++] = pool.name (i);
+    Arrays.sort (names);
+
+    // Arrays.sort is stable, so equal keys stay in the order of their chars
+    for (i = 0; i < names.length; i++)
+      keys[i] = collator.getCollationKey (names[i]);
+    Arrays.sort (keys);
+
+    for (i = 0; i < keys.length; i++)
+      rank[pool.id (keys[i].getSourceString())] = i;
+
+    return rank;
+  }
+
+  // People with no name come after everyone with one
+  private static int nameRank(int rank[], int id)
+  {
+    if (id >= 0)
+      return rank[id];
+    else
+      return Integer.MAX_VALUE;
+  }
+
+
   public int getCount()
   {
-    return peopleVect.size();
+    if (peopleView != null)
+      return peopleView.size();
+    else if (personIndex != null)
+      return personIndex.count;
+    else
+      return peopleVect.size();
+  }
+
+  // Prints how many table elements were copied while the people and family
+  // tables grew, next to what the old fixed growth of 100 elements at a
+  // time would have copied for the same number of entries.
+  public void printGrowth()
+  {
+    int peopleCount = personIds.size();
+
+    System.out.println("Table growth for " + peopleCount + " people and " + familyCount + " families:");
+    System.out.println("   Elements copied growing by 100: " +
+                       (copiesForGrowth (100, 100, peopleCount) + copiesForGrowth (100, 100, familyCount)));
+    System.out.println("   Elements copied now:            " +
+                       (copiesForGrowth (peopleCapacity, 0, peopleCount) + copiesForGrowth (familyCapacity, 0, familyCount)));
+  }
+
+  // Works out how many elements a Vector copies to hold finalSize elements,
+  // given its initial capacity and capacity increment.  An increment of 0
+  // means the Vector doubles.
+  static long copiesForGrowth(int capacity, int increment, int finalSize)
+  {
+    long copies = 0;
+    long size   = capacity;
+
+    while (size < finalSize)
+    {
+      copies += size;
+      size   += (increment > 0) ? increment : size;
+    }
+
+    return copies;
+  }
+
+  // Writes the people and families in an order that came from
+  // PersonTable.writeOrder.
+  private void writeInOrder(int order[], Record record) throws IOException
+  {
+    int i;
+
+    for (i = 0; i < order.length; i++)
+    {
+      if (order[i] >= 0)
+        readPerson(order[i]).write(record);
+      else
+        getFamily(-order[i] - 1).write(record);
+    }
   }
 
   public void writeFrom(Person startPerson,
@@ -103,23 +712,33 @@ class PeopleList
     Person      parentListTail;
     Enumeration enumFamily;
     Enumeration enumChildren;
-    int         peopleCount = peopleVect.size();
+    int         peopleCount = getCount();
     int         i;
 
-    // Clear the written flags of all individuals
-    for (i = 0; i < peopleCount; i++)
-      if ((person = getPerson(i)) != null)
-        person.written = false;
+    // Clear the written flags of all individuals and families.  In bounded
+    // memory mode they are made afresh each time they are read, so there
+    // are no flags to clear.
+    if (personIndex == null)
+    {
+      for (i = 0; i < peopleCount; i++)
+        if ((person = getPerson(i)) != null)
+          person.written = false;
 
-    // Clear the written flags of all families
-    for (i = 0; i < familyCount; i++)
-      if ((family = getFamily(i)) != null)
-        family.written = false;
+      for (i = 0; i < familyCount; i++)
+        if ((family = getFamily(i)) != null)
+          family.written = false;
+    }
 
     // Write the people count to the file
     record.write(Record.PEOPLE_COUNT, peopleCount);
     record.write(Record.FAMILY_COUNT, familyCount);
 
+    if (table != null)
+    {
+      writeInOrder(table.writeOrder(indexOf(startPerson)), record);
+      return;
+    }
+
     // Write the parents and children of the start person out in
     // breadth first order.  Do 10 parents, then 10 children, then
     // 10 parents, and so on until all parents and children are written.
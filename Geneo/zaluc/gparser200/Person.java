@@ -22,137 +22,234 @@ import zaluc.utils.*;
 //| Methods:      public            Person             (Params     inParams,  |
 //|                                                     PeopleList inPList)   |
 //|                                                                           |
-//|               public int        compareTo          (Person other)         |
+//|               public int        getIndex           ()                     |
 //|                                                                           |
 //|                                                                           |
 //|---------------------------------------------------------------------------+
 
-class Person implements SortableObject
+class Person
 {
   public static final int unknown = 0;
   public static final int male    = 1;
   public static final int female  = 2;
 
-  public static final int compareAlphabetically = 1;
-  public static final int compareByAge          = 2;
+  private static final int MAX_NOTE = 16384;   // Most chars of notes put in the details
 
   public  Person         next;
-  public  SortableHandle mainListHandle   = new SortableHandle (this);
-  public  SortableHandle familyListHandle = new SortableHandle (this);
-  public  int            id;
+  public  int            id;              // The number in the gedcom xref
+  public  int            xrefIndex;       // Dense index of the xref, see XrefMap
   public  boolean        includeDetails = true;
   public  String         firstName;
   public  String         lastName;
   public  String         title;
   public  String         nameSuffix;
   public  String         fullName;
-  public  GedcomEvent    birth;
-  public  GedcomEvent    death;
-  private SortableVector events;
+  public  int            birth = EventArena.NONE;   // Indices in the pending events, while
+  public  int            death = EventArena.NONE;   // the person is being parsed
+  public  int            birthKey = GedcomEvent.NO_DATE;   // Sort keys of their dates
+  public  int            deathKey = GedcomEvent.NO_DATE;
+  private int            eventStart = EventArena.NONE;  // The events parsed for the person,
+  private int            eventCount = 0;                // in Parser.eventArena
+  public  EventArena.Pending spilled;     // Or read back from the person store
+  public  long           recordOffset = -1;  // Where the person was spilled, see PersonStore
   private String         lifeDates;
   public  int            sex;
   public  boolean        hide = false;
   public  Person         father;
   public  Person         mother;
   public  Family         childOfFamily;
-  public  SortableVector families = new SortableVector(3, 3, 0);
-  public  int            preferredFamily = -1;
+  public  Vector         families = new Vector(3, 0);   // Sorted by PeopleList.sort
+  public  int            preferredFamily = -1;   // Dense index of the family's xref
 
-  private String    details;
+  public  long      noteOffset = -1;   // Where the notes are in the note store
+  public  int       noteLength = 0;    // In chars
 
   public boolean   written = false;
 
-  public void addNote (String note)
+  // The notes are kept in the note store, see NoteStore
+  public void setNote (long offset, int length)
   {
+    noteOffset = offset;
+    noteLength = length;
   }
 
   public void addFamily (Family family)
   {
-    if (sex == male)
-      families.addElement(family.husbandsListHandle);
-    else
-      families.addElement(family.wifesListHandle);
+    families.addElement(family);
   }
 
-  public void addEvent (GedcomEvent event)
+  // The person's index in the sorted list, which is how Geneo knows the
+  // person.  It comes from the list's sorted view, see PeopleList.indexOf.
+  public int getIndex ()
   {
-    if (events == null)
-      events = new SortableVector(10, 10, 0);
-    events.addElement(event.listHandle);
+    return Parser.people.indexOf(this);
   }
 
-  public GedcomEvent getEvent (int index)
+  // The events parsed for the person are count events in Parser.eventArena
+  // from start on, in date order
+  public void setEvents (int start, int count)
   {
-    if (index < events.size())
-      return (GedcomEvent) ((SortableHandle) events.elementAt(index)) .getContainer();
-    else
-      return null;
+    eventStart = start;
+    eventCount = count;
   }
 
-  public void sortEvents ()
+  // Moves the person's events along by offset, once they have been
+  // copied from a parser thread's arena to Parser.eventArena, see
+  // PeopleList.merge
+  public void moveEvents (int offset)
   {
-    if (events != null)
-      events.sort();
+    if (eventStart != EventArena.NONE)
+      eventStart += offset;
   }
 
-  public String getDetails()
+  public int getEventStart ()
   {
-    if (details == null)
+    return eventStart;
+  }
+
+  // The number of parsed events held in the arena, not counting spilled
+  // ones
+  public int getEventCount ()
+  {
+    return eventCount;
+  }
+
+  // The sort key of the birth date, or GedcomEvent.NO_DATE if there isn't
+  // one
+  public int getBirthKey ()
+  {
+    return birthKey;
+  }
+
+  public int getDeathKey ()
+  {
+    return deathKey;
+  }
+
+  // The full name, as it is shown, from the first and last names
+  public static String joinNames (String firstName, String lastName)
+  {
+    return ((firstName != null) ? firstName : "???") + " " +
+           ((lastName  != null) ? lastName  : "???");
+  }
+
+  // Adds the details, the events one to a line followed by the notes, to
+  // the end of buf.  They are put together when the person is written,
+  // straight into the record's buffer, and aren't kept.  The notes are
+  // read from the note store, and since Record.write stores the details
+  // in at most 65535 bytes, a very long note is cut short.  Returns false
+  // if there are no details.
+  public boolean appendDetails (StringBuffer buf) throws IOException
+  {
+    int start = buf.length();
+
+    appendEvents (buf);
+
+    if (noteOffset != -1)
     {
-      String temp;
-      int    i, count;
+      if (buf.length() > start)
+        buf.append ('\n');
+      buf.append ("Note: ");
+      buf.append (Parser.noteStore.read (noteOffset, Math.min (noteLength, MAX_NOTE)));
+    }
+
+    return buf.length() > start;
+  }
 
-//      details = fullName;
+  // Adds the events in date order, one to a line, leaving out any that
+  // have nothing to show.  The parsed events are already in date order,
+  // in the arena or, if spilled isn't null, read back from the store, and
+  // the marriages of the person's families are merged in with them.  A
+  // marriage is kept once by its family, and shown here with the name of
+  // the other spouse.  Marriages on the same date are in the order of the
+  // families in the file, and come after the parsed events on that date.
+  private void appendEvents (StringBuffer buf)
+  {
+    EventArena  arena         = Parser.eventArena;
+    int         parsed        = (spilled != null) ? spilled.count : eventCount;
+    Family      marriages[]   = new Family[families.size()];
+    int         marriageCount = 0;
+    Family      family;
+    int         start         = buf.length();
+    int         mark;
+    int         key;
+    boolean     shown;
+    int         i, j;
+
+    // There are only a few marriages, so an insertion sort will do
+    for (j = 0; j < marriages.length; j++)
+    {
+      family = (Family) families.elementAt(j);
+      if (family.marriage == null)
+        continue;
 
-      if (events != null)
+      key = family.marriage.getDateKey();
+      for (i = marriageCount; i > 0; i--)
       {
-        sortEvents();
-
-        count = events.size();
-        for (i = 0; i < count; i++)
-        {
-          temp = getEvent(i).toString();
-          if (temp != null)
-          {
-            if (details == null)
-              details = temp;
-            else
-              details += "\n" + temp;
-          }
-        }
+        if ((marriages[i - 1].marriage.getDateKey() < key) ||
+            ((marriages[i - 1].marriage.getDateKey() == key) && (marriages[i - 1].index <= family.index)))
+          break;
+        marriages[i] = marriages[i - 1];
       }
+      marriages[i] = family;
+      marriageCount++;
     }
 
-    return details;
+    i = j = 0;
+    while ((i < parsed) || (j < marriageCount))
+    {
+      mark = buf.length();
+      if (mark > start)
+        buf.append ('\n');
+
+      if (i < parsed)
+        key = (spilled != null) ? spilled.dateKey (i) : arena.dateKey (eventStart + i);
+      else
+        key = 0;
+
+      if ((i < parsed) && ((j == marriageCount) || (key <= marriages[j].marriage.getDateKey())))
+      {
+        shown = (spilled != null) ? spilled.appendTo (i, buf) : arena.appendTo (eventStart + i, buf);
+        i++;
+      }
+      else
+        shown = marriages[j++].appendMarriage (buf, this);
+
+      if (!shown)
+        buf.setLength (mark);
+    }
   }
 
   public String getLifeDates()
   {
+    int birthKey;
+    int deathKey;
+
     if (lifeDates == null)
     {
+      birthKey = getBirthKey();
+      deathKey = getDeathKey();
+
       // Combine the birth and death dates into a single string
       //old way: lifeDates = ((birth != null) ? birth.getDate() : "???") + " - " +
       //old way:              ((death != null) ? death.getDate() : "???");
 
       // New way:
 
-      if (((birth != null) && birth.hasYear()) &&
-          ((death == null) || !death.hasYear()))
+      if (GedcomDate.hasYear(birthKey) && !GedcomDate.hasYear(deathKey))
       {
         // We have a birth date but no death date
-        lifeDates = "b. " + birth.getYear();
+        lifeDates = "b. " + GedcomDate.getYear(birthKey);
       }
-      else if (((death != null) && death.hasYear()) &&
-               ((birth == null) || !birth.hasYear()))
+      else if (GedcomDate.hasYear(deathKey) && !GedcomDate.hasYear(birthKey))
       {
         // We have a death date but no birth date
-        lifeDates = "d. " + death.getYear();
+        lifeDates = "d. " + GedcomDate.getYear(deathKey);
       }
-      else if ((birth != null) && birth.hasYear() &&
-               (death != null) && death.hasYear())
+      else if (GedcomDate.hasYear(birthKey) && GedcomDate.hasYear(deathKey))
       {
         // We have both dates
-        lifeDates = birth.getYear() + " - " + death.getYear();
+        lifeDates = GedcomDate.getYear(birthKey) + " - " + GedcomDate.getYear(deathKey);
       }
       // else, we have no dates, just return null
     }
@@ -160,85 +257,17 @@ class Person implements SortableObject
     return lifeDates;
   }
 
-  //+-----------------------------------------+
-  //| Routine for implementing SortableObject |
-  //+-----------------------------------------+
-
-  // Compares two people for sorting purposes.
-  // returns <  0 if this is less than other
-  // returns == 0 if this == other
-  // returns >  0 if this is greater than other
-
-  public int compareTo (SortableObject soOther, int compareToken)
-  {
-    Person  other = (Person)soOther;
-    int     ret = 0;
-
-    if (compareToken == compareAlphabetically)
-    {
-      // Compare last names:
-      if ((lastName == null) && (other.lastName == null))
-        ret = 0;
-      else if (lastName == null)
-        ret = 1;
-      else if (other.lastName == null)
-        ret = -1;
-      else
-        ret = lastName.compareTo(other.lastName);
-
-      if (ret != 0)
-        return ret;
-
-      // Last names are identical, compare first names
-      if ((firstName == null) && (other.firstName == null))
-        ret = 0;
-      else if (firstName == null)
-        ret = 1;
-      else if (other.firstName == null)
-        ret = -1;
-      else
-        ret = firstName.compareTo(other.firstName);
-
-      if (ret != 0)
-        return ret;
-
-    } /* end compare alphabetically */
-
-    /* If we're comparing alphabetically and the the names are the same, */
-    /* or if we're comparing by age:                                     */
-
-    if ((birth == null) &&
-        ((other == null) || (other.birth == null)))
-    {
-      ret = 0;
-    }
-    else if (birth == null)
-    {
-      ret = 1;
-    }
-    else if ((other == null) ||
-             (other.birth == null))
-    {
-      ret = -1;
-    }
-    else
-    {
-      ret = birth.compareTo(other.birth, compareToken);
-    }
-
-    return ret;
-  }
-
   public void write(Record record) throws IOException
   {
-    String      data;
-    Enumeration enum;
-    Family      family;
+    String       data;
+    StringBuffer buf;
+    Enumeration  enum;
+    Family       family;
 
     if (!written)
     {
       written = true;
-      record.write(Record.PERSON, mainListHandle.getIndex());
+      record.write(Record.PERSON, getIndex());
       record.write(Record.ID    , id);
       record.write(Record.SEX   , sex);
       if (hide)               record.write(Record.HIDE);
@@ -248,17 +277,18 @@ class Person implements SortableObject
       if (nameSuffix != null) record.write(Record.NAME_SUFFIX, nameSuffix);
       if (includeDetails)
       {
-        data = getDetails();
-        if (data       != null) record.write(Record.DETAILS    , data);
+        buf = record.buffer();
+        if (appendDetails (buf))
+          record.write(Record.DETAILS, buf);
       }
       data = getLifeDates();
       if (data       != null) record.write(Record.LIFE_DATES , data);
-      if (father     != null) record.write(Record.FATHER     , father.mainListHandle.getIndex());
-      if (mother     != null) record.write(Record.MOTHER     , mother.mainListHandle.getIndex());
+      if (father     != null) record.write(Record.FATHER     , father.getIndex());
+      if (mother     != null) record.write(Record.MOTHER     , mother.getIndex());
       enum = families.elements();
       while (enum.hasMoreElements())
       {
-        family = (Family) ((SortableHandle)enum.nextElement()).getContainer();
+        family = (Family) enum.nextElement();
         record.write(Record.FAMILY_LINK, family.index);
       }
     }
@@ -295,7 +325,7 @@ class Person implements SortableObject
     enumFamily = families.elements();
     while (enumFamily.hasMoreElements())
     {
-      family = (Family) ((SortableHandle)enumFamily.nextElement()).getContainer();
+      family = (Family) enumFamily.nextElement();
 
       if ((sex == male) &&
           (family.mother != null))
@@ -314,7 +344,7 @@ class Person implements SortableObject
       enumChildren = family.children.elements();
       while (enumChildren.hasMoreElements())
       {
-        child = (Person) ((SortableHandle)enumChildren.nextElement()).getContainer();
+        child = (Person) enumChildren.nextElement();
 
         idString = format.format(child.id);
         ret += "         <p>Child: <a href=UHP-" + idString + ".html>" + child.fullName + "</a></p>\n";
@@ -0,0 +1,494 @@
+package zaluc.gparser200;
+
+import java.io.*;
+
+import zaluc.utils.*;
+
+//+-- Class PersonIndex ------------------------------------------------------+
+//|                                                                           |
+//| Syntax:       class PersonIndex                                           |
+//|                                                                           |
+//| Description:  The PersonIndex class stands in for the people and          |
+//|               families of a PeopleList in bounded memory mode, when       |
+//|               Parser.personStore is set.  A person that was spilled to    |
+//|               the store has no Person object in memory.  All that is      |
+//|               kept of it are the ints in the columns below:  where its    |
+//|               record is in the store, its gedcom ID, the IDs of its names |
+//|               in Parser.namePool, the sort keys of its birth and death,   |
+//|               and the families it is linked to.  A family is kept as the  |
+//|               people in it and its marriage.                              |
+//|                                                                           |
+//|               The people are kept by the index of their xref, like the    |
+//|               objects are, and the links are resolved, and sorted, in     |
+//|               the same way and in the same order.  Once the list has been |
+//|               sorted, the links are handed over to a PersonTable, which   |
+//|               works out the order the people are written in.  A person    |
+//|               is then read back from the store, whole, when it is         |
+//|               written, and given links to stand-ins for its relatives     |
+//|               that only have what Person.write and Person.toHtml use of   |
+//|               them:  their xref, their ID and their full name.            |
+//|                                                                           |
+//|               The people that were parsed before the heap went over the   |
+//|               ceiling weren't spilled, and are kept as objects, but their |
+//|               links are made from the table in the same way.              |
+//|                                                                           |
+//| Methods:      public void   setPerson    (Person person, int index)       |
+//|               public void   addFamily    (Family family)                  |
+//|               public void   resolveLinks (LinkTable links,                |
+//|                                           int familyBase,                 |
+//|                                           int personRemap[])              |
+//|               public void   finishLinks  ()                               |
+//|               public long   sortLinks    ()                               |
+//|               public void   dropLinks    ()                               |
+//|               public Person getPerson    (int position, SortedView view,  |
+//|                                           PersonTable table)              |
+//|               public Family getFamily    (int index, SortedView view,     |
+//|                                           PersonTable table)              |
+//|                                                                           |
+//|---------------------------------------------------------------------------+
+
+class PersonIndex
+{
+  public static final int NONE = -1;
+
+  int         count = 0;            // People, including empty entries
+  int         familyCount = 0;
+
+  // One entry per person, by the index of its xref.  The id of an empty
+  // entry is NONE.
+  long        offsets[];            // Where the person is in Parser.personStore, -1 if it isn't
+  Person      resident[];           // The people that weren't spilled
+  int         ids[];
+  byte        sexes[];
+  int         birthKeys[];          // GedcomEvent.NO_DATE if unknown
+  int         deathKeys[];
+  int         firstNames[];         // IDs in Parser.namePool, NONE if none
+  int         lastNames[];
+  int         preferred[];          // Dense index of the preferred family's xref, or NONE
+  int         childOf[];            // The family the person is a child of, or NONE
+  int         familyStarts[];       // Families of person i are familyList[familyStarts[i]..familyStarts[i+1])
+  int         familyList[];
+
+  // One entry per family, by its index in the family list
+  int         familyIds[];          // Dense index of the family's xref
+  GedcomEvent marriages[];
+  int         familyFathers[];      // By the index of their xref, NONE if unknown
+  int         familyMothers[];
+  int         childStarts[];        // Children of family f are childList[childStarts[f]..childStarts[f+1])
+  int         childList[];
+
+  private LinkTable          made = new LinkTable();     // The links, in the order they were made
+  private EventArena.Pending readBack = new EventArena.Pending();
+  private Person             lastResident;   // The last one getPerson gave links to
+
+  private int                order[];   // For sortList, kept from one list to the next
+  private long               keys[];
+  private int                items[];
+
+  public PersonIndex (int peopleHint, int familyHint)
+  {
+    int size = Math.max (peopleHint, 16);
+    int i;
+
+    offsets    = new long[size];
+    resident   = new Person[size];
+    ids        = new int[size];
+    sexes      = new byte[size];
+    birthKeys  = new int[size];
+    deathKeys  = new int[size];
+    firstNames = new int[size];
+    lastNames  = new int[size];
+    preferred  = new int[size];
+    childOf    = new int[size];
+    for (i = 0; i < size; i++)
+      ids[i] = NONE;
+
+    size = Math.max (familyHint, 16);
+    familyIds     = new int[size];
+    marriages     = new GedcomEvent[size];
+    familyFathers = new int[size];
+    familyMothers = new int[size];
+  }
+
+  //+--------------------------------------------------------------+
+  //| Routines for adding people and families                      |
+  //+--------------------------------------------------------------+
+
+  // Adds a person at the index of its xref, once it has been parsed and,
+  // if it was spilled, written to the store.  Its names must be in
+  // Parser.namePool.
+  public void setPerson (Person person, int index)
+  {
+    int size = ids.length;
+    int i;
+
+    if (index >= size)
+    {
+      while (size <= index)
+        size *= 2;
+      offsets    = grow (offsets, size);
+      resident   = grow (resident, size);
+      ids        = grow (ids, size);
+      sexes      = grow (sexes, size);
+      birthKeys  = grow (birthKeys, size);
+      deathKeys  = grow (deathKeys, size);
+      firstNames = grow (firstNames, size);
+      lastNames  = grow (lastNames, size);
+      preferred  = grow (preferred, size);
+      childOf    = grow (childOf, size);
+      for (i = count; i < size; i++)
+        ids[i] = NONE;
+    }
+    if (index >= count)
+      count = index + 1;
+
+    offsets[index]    = person.recordOffset;
+    resident[index]   = (person.recordOffset == -1) ? person : null;
+    ids[index]        = person.id;
+    sexes[index]      = (byte) person.sex;
+    birthKeys[index]  = person.getBirthKey();
+    deathKeys[index]  = person.getDeathKey();
+    firstNames[index] = Parser.namePool.id (person.firstName);
+    lastNames[index]  = Parser.namePool.id (person.lastName);
+    preferred[index]  = person.preferredFamily;
+    childOf[index]    = NONE;
+  }
+
+  // Adds a family, once it has been parsed, at family.index
+  public void addFamily (Family family)
+  {
+    int size = familyIds.length;
+
+    if (familyCount == size)
+    {
+      size *= 2;
+      familyIds     = grow (familyIds, size);
+      marriages     = grow (marriages, size);
+      familyFathers = grow (familyFathers, size);
+      familyMothers = grow (familyMothers, size);
+    }
+
+    familyIds[familyCount]     = family.id;
+    marriages[familyCount]     = family.marriage;
+    familyFathers[familyCount] = familyMothers[familyCount] = NONE;
+    familyCount++;
+  }
+
+  //+--------------------------------------------------------------+
+  //| Routines for linking families and people together            |
+  //+--------------------------------------------------------------+
+
+  // Makes the links in a LinkTable, like PeopleList.resolveLinks does
+  // with the objects.  A husband or wife that doesn't exist still takes
+  // the place of the one before, and a child is a child of its preferred
+  // family, or else of the first one it is found in.
+  public void resolveLinks (LinkTable links, int familyBase, int personRemap[])
+  {
+    int size = links.size();
+    int family;
+    int person;
+    int i;
+
+    for (i = 0; i < size; i++)
+    {
+      family = familyBase + links.family(i);
+      if (personRemap != null)
+        person = personRemap[links.person(i)];
+      else
+        person = links.person(i);
+      if ((person >= count) || (ids[person] == NONE))
+        person = NONE;
+
+      switch (links.role(i))
+      {
+        case LinkTable.HUSBAND:
+          familyFathers[family] = person;
+          break;
+        case LinkTable.WIFE:
+          familyMothers[family] = person;
+          break;
+        case LinkTable.CHILD:
+          if ((person != NONE) &&
+              ((preferred[person] == familyIds[family]) || (childOf[person] == NONE)))
+            childOf[person] = family;
+          break;
+      }
+
+      if (person != NONE)
+        made.add (family, links.role(i), person);
+    }
+  }
+
+  // Puts the families of each person, and the children of each family, in
+  // lists once every LinkTable has been resolved.  Each list is in the
+  // order its links were made, as the Vectors of the objects would be.
+  public void finishLinks ()
+  {
+    int size = made.size();
+    int nextFamily[];
+    int nextChild[];
+    int i;
+
+    familyStarts = new int[count + 1];
+    childStarts  = new int[familyCount + 1];
+    for (i = 0; i < size; i++)
+    {
+      if (made.role(i) == LinkTable.CHILD)
+        childStarts[made.family(i) + 1]++;
+      else
+        familyStarts[made.person(i) + 1]++;
+    }
+    for (i = 0; i < count; i++)
+      familyStarts[i + 1] += familyStarts[i];
+    for (i = 0; i < familyCount; i++)
+      childStarts[i + 1] += childStarts[i];
+
+    familyList = new int[familyStarts[count]];
+    childList  = new int[childStarts[familyCount]];
+    nextFamily = new int[count];
+    nextChild  = new int[familyCount];
+    System.arraycopy (familyStarts, 0, nextFamily, 0, count);
+    System.arraycopy (childStarts,  0, nextChild,  0, familyCount);
+    for (i = 0; i < size; i++)
+    {
+      if (made.role(i) == LinkTable.CHILD)
+        childList[nextChild[made.family(i)]++] = made.person(i);
+      else
+        familyList[nextFamily[made.person(i)]++] = made.family(i);
+    }
+
+    made = null;
+  }
+
+  //+--------------------------------------------------------------+
+  //| Routines for sorting                                         |
+  //+--------------------------------------------------------------+
+
+  // Sorts the children of each family by birth date, and then the families
+  // of each person by when they started, the way PeopleList.sort sorts
+  // the objects.  The people themselves are sorted by PeopleList.sort.
+  // Returns the number of comparisons made.
+  public long sortLinks ()
+  {
+    int  familyKeys[] = new int[familyCount];
+    long comparisons  = 0;
+    int  i;
+
+    for (i = 0; i < familyCount; i++)
+    {
+      comparisons  += sortList (childList, childStarts[i], childStarts[i + 1], birthKeys);
+      familyKeys[i] = startKey (i);   // The children are sorted first
+    }
+
+    for (i = 0; i < count; i++)
+      comparisons += sortList (familyList, familyStarts[i], familyStarts[i + 1], familyKeys);
+
+    order = items = null;
+    keys  = null;
+
+    return comparisons;
+  }
+
+  // Lets go of the links and keys, once PersonTable.build has made a
+  // table of them.  Only where the people are, and the marriages, are
+  // still needed to read the people back.
+  public void dropLinks ()
+  {
+    ids        = null;
+    sexes      = null;
+    birthKeys  = deathKeys = null;
+    firstNames = lastNames = null;
+    preferred  = childOf   = null;
+    familyStarts  = familyList    = null;
+    familyIds     = null;
+    familyFathers = familyMothers = null;
+    childStarts   = childList     = null;
+  }
+
+  //+--------------------------------------------------------------+
+  //| Routines for reading the people back                         |
+  //+--------------------------------------------------------------+
+
+  // Returns the person at the given position in the sorted list, read back
+  // from the person store if it was spilled, with its father, mother and
+  // families made from the table.  A person is only good until the next
+  // one is asked for:  the people that are read back share the list their
+  // events are read into, and a person that wasn't spilled has its links
+  // taken away again, so the stand-ins don't pile up.
+  public Person getPerson (int position, SortedView view, PersonTable table) throws IOException
+  {
+    int    row = view.row (position);
+    Person person;
+    int    i;
+
+    if (lastResident != null)
+    {
+      lastResident.father = lastResident.mother = null;
+      lastResident.families.removeAllElements();
+    }
+    lastResident = resident[row];
+
+    if ((person = resident[row]) == null)
+    {
+      person = new Person();
+      readBack.clear();
+      Parser.personStore.read (offsets[row], person, readBack);
+    }
+    person.xrefIndex = row;
+    person.written   = false;
+    person.father    = standIn (table.fathers[position], view, table, null, NONE);
+    person.mother    = standIn (table.mothers[position], view, table, null, NONE);
+
+    person.families.removeAllElements();
+    for (i = table.familyStarts[position]; i < table.familyStarts[position + 1]; i++)
+      person.families.addElement (getFamily (table.familyList[i], view, table, person, position));
+
+    return person;
+  }
+
+  // Returns the family with the given index, with stand-ins for the people
+  // in it
+  public Family getFamily (int index, SortedView view, PersonTable table)
+  {
+    return getFamily (index, view, table, null, NONE);
+  }
+
+  //+-------------------------------------------------+
+  //| Internal routines                               |
+  //+-------------------------------------------------+
+
+  // Makes a family, with member, if it isn't null, as itself wherever the
+  // person at position is in the family, so that Family.spouseOf finds
+  // the other spouse.
+  private Family getFamily (int index, SortedView view, PersonTable table,
+                            Person member, int position)
+  {
+    Family family = new Family();
+    int    i;
+
+    family.index    = index;
+    family.marriage = marriages[index];
+    family.father   = standIn (table.familyFathers[index], view, table, member, position);
+    family.mother   = standIn (table.familyMothers[index], view, table, member, position);
+    for (i = table.childStarts[index]; i < table.childStarts[index + 1]; i++)
+      family.addChild (standIn (table.childList[i], view, table, member, position));
+
+    return family;
+  }
+
+  // Returns a Person for the one at the given position, with just its xref,
+  // ID and full name, or member if it is the person at memberPosition
+  private static Person standIn (int position, SortedView view, PersonTable table,
+                                 Person member, int memberPosition)
+  {
+    Person person;
+
+    if (position == NONE)
+      return null;
+    if ((member != null) && (position == memberPosition))
+      return member;
+
+    person = new Person();
+    person.xrefIndex = view.row (position);
+    person.id        = table.ids[position];
+    person.fullName  = Person.joinNames (name (table.firstNames[position]),
+                                         name (table.lastNames[position]));
+    return person;
+  }
+
+  private static String name (int id)
+  {
+    return (id != NONE) ? Parser.namePool.name (id) : null;
+  }
+
+  // Like Family.getStartKey:  the marriage date, or else the birth date
+  // of the oldest child that has one
+  private int startKey (int family)
+  {
+    GedcomEvent marriage = marriages[family];
+    int         i;
+
+    if ((marriage != null) &&
+        (marriage.getDate() != null))
+      return marriage.getDateKey();
+
+    for (i = childStarts[family]; i < childStarts[family + 1]; i++)
+      if (birthKeys[childList[i]] != GedcomEvent.NO_DATE)
+        return birthKeys[childList[i]];
+
+    return GedcomEvent.NO_DATE;
+  }
+
+  // Sorts list[start..end) by the key of each entry with KeySort, which
+  // keeps entries with equal keys in the order they were in
+  private long sortList (int list[], int start, int end, int keyOf[])
+  {
+    int  n = end - start;
+    int  size = (order != null) ? order.length : 16;
+    long comparisons;
+    int  i;
+
+    if ((order == null) || (n > size))
+    {
+      while (size < n)
+        size *= 2;
+      order = new int[size];
+      keys  = new long[size];
+      items = new int[size];
+    }
+
+    for (i = 0; i < n; i++)
+    {
+      order[i] = i;
+      items[i] = list[start + i];
+      keys[i]  = keyOf[items[i]];
+    }
+
+    comparisons = KeySort.sort (order, n, keys, null);
+
+    for (i = 0; i < n; i++)
+      list[start + i] = items[order[i]];
+
+    return comparisons;
+  }
+
+  private static int[] grow (int array[], int size)
+  {
+    int bigger[] = new int[size];
+
+    System.arraycopy (array, 0, bigger, 0, array.length);
+    return bigger;
+  }
+
+  private static long[] grow (long array[], int size)
+  {
+    long bigger[] = new long[size];
+
+    System.arraycopy (array, 0, bigger, 0, array.length);
+    return bigger;
+  }
+
+  private static byte[] grow (byte array[], int size)
+  {
+    byte bigger[] = new byte[size];
+
+    System.arraycopy (array, 0, bigger, 0, array.length);
+    return bigger;
+  }
+
+  private static Person[] grow (Person array[], int size)
+  {
+    Person bigger[] = new Person[size];
+
+    System.arraycopy (array, 0, bigger, 0, array.length);
+    return bigger;
+  }
+
+  private static GedcomEvent[] grow (GedcomEvent array[], int size)
+  {
+    GedcomEvent bigger[] = new GedcomEvent[size];
+
+    System.arraycopy (array, 0, bigger, 0, array.length);
+    return bigger;
+  }
+}
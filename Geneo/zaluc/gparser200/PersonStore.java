@@ -0,0 +1,214 @@
+package zaluc.gparser200;
+
+import java.io.*;
+import java.util.*;
+
+//+-- Class PersonStore ------------------------------------------------------+
+//|                                                                           |
+//| Syntax:       class PersonStore                                           |
+//|                                                                           |
+//| Description:  The PersonStore class lets a file be converted when all of  |
+//|               its people won't fit in memory at once.  Once the heap in   |
+//|               use goes over a ceiling, each person that is parsed is      |
+//|               written whole to a temporary file, with its names, its      |
+//|               events and where its notes are, and no Person object is     |
+//|               kept for it.  All that stays in memory is the offset of the |
+//|               record in the file, with the ints that are needed to link   |
+//|               and sort the people, see PersonIndex.  A person is read     |
+//|               back by offset when it is written out.                      |
+//|                                                                           |
+//|               Each record in the file is an int length followed by the    |
+//|               person, written with DataOutputStream.  People can be       |
+//|               spilled from several parser threads at once, so the reading |
+//|               and writing routines are synchronized.  A place is written  |
+//|               by name, since a parser thread's place IDs are its own, and |
+//|               is found in Parser.placeTable when it is read back.         |
+//|                                                                           |
+//| Methods:      public boolean   spilling ()                                |
+//|               public long      write    (Person             person,       |
+//|                                          EventArena.Pending events,       |
+//|                                          PlaceTable         places)       |
+//|               public void      read     (long               offset,       |
+//|                                          Person             person,       |
+//|                                          EventArena.Pending events)       |
+//|               public long      length   ()                                |
+//|               public void      close    ()                                |
+//|                                                                           |
+//|---------------------------------------------------------------------------+
+
+class PersonStore
+{
+  private static final int CHECK_INTERVAL = 1024;   // People between heap checks
+
+  private long                  heapCeiling;     // In bytes
+  private File                  file;
+  private RandomAccessFile      data;
+  private OutputStream          out;             // Buffered, appends to data
+  private long                  length  = 0;     // Bytes written so far
+  private ByteArrayOutputStream recordBytes = new ByteArrayOutputStream (1024);
+  private DataOutputStream      recordOut   = new DataOutputStream (recordBytes);
+  private int                   sinceCheck = 0;
+  private boolean               overCeiling = false;
+
+  public  int                   spilled = 0;     // Number of people spilled
+
+  public PersonStore (long heapCeiling) throws IOException
+  {
+    this.heapCeiling = heapCeiling;
+
+    file = File.createTempFile ("gparser", ".tmp");
+    file.deleteOnExit();
+    data = new RandomAccessFile (file, "rw");
+    out  = new BufferedOutputStream (new FileOutputStream (data.getFD()), 65536);
+  }
+
+  // Called once a person has been parsed, to ask whether it should be
+  // spilled.  The heap is checked every CHECK_INTERVAL people,
+  // and once it is over the ceiling, the people parsed after that are
+  // spilled until a check finds it under the ceiling again.
+  public synchronized boolean spilling ()
+  {
+    Runtime runtime = Runtime.getRuntime();
+
+    if (++sinceCheck >= CHECK_INTERVAL)
+    {
+      sinceCheck = 0;
+      overCeiling = (runtime.totalMemory() - runtime.freeMemory() > heapCeiling);
+    }
+
+    return overCeiling;
+  }
+
+  // Writes a person and its events, which must be in date order, to the
+  // end of the file and returns the offset of the record.  places is the
+  // table the events' place IDs are in.  The links of the person aren't
+  // written, since they are kept by PersonIndex.
+  public synchronized long write (Person             person,
+                                  EventArena.Pending events,
+                                  PlaceTable         places) throws IOException
+  {
+    long       offset = length;
+    GedcomDate date;
+    int        i;
+
+    recordBytes.reset();
+    recordOut.writeInt (person.id);
+    recordOut.writeByte (person.sex);
+    recordOut.writeBoolean (person.hide);
+    recordOut.writeBoolean (person.includeDetails);
+    writeString (person.firstName);
+    writeString (person.lastName);
+    writeString (person.title);
+    writeString (person.nameSuffix);
+    recordOut.writeInt (person.birthKey);
+    recordOut.writeInt (person.deathKey);
+    recordOut.writeLong (person.noteOffset);
+    recordOut.writeInt (person.noteLength);
+    recordOut.writeInt (events.count);
+    for (i = 0; i < events.count; i++)
+    {
+      date = events.dates[i];
+      writeString (events.types[i]);
+      writeString (events.values[i]);
+      writeString ((date != null) ? date.toString() : null);
+      if (date != null)
+        recordOut.writeInt (date.key());
+      writeString (places.name (events.places[i]));
+    }
+    recordOut.flush();
+
+    writeInt (recordBytes.size());
+    recordBytes.writeTo (out);
+    length += 4 + recordBytes.size();
+    spilled++;
+
+    return offset;
+  }
+
+  // Reads back the person written at the given offset into person, which
+  // should be new, and its events into events, which should be empty.
+  // The person's events are left in events, see Person.appendDetails.
+  public synchronized void read (long               offset,
+                                 Person             person,
+                                 EventArena.Pending events) throws IOException
+  {
+    DataInputStream in;
+    byte            record[];
+    String          date;
+    String          place;
+    int             event;
+    int             count;
+    int             i;
+
+    out.flush();
+    data.seek (offset);
+    record = new byte[data.readInt()];
+    data.readFully (record);
+    data.seek (length);       // The writes share the file position
+
+    in = new DataInputStream (new ByteArrayInputStream (record));
+    person.id             = in.readInt();
+    person.sex            = in.readByte();
+    person.hide           = in.readBoolean();
+    person.includeDetails = in.readBoolean();
+    person.firstName      = readString (in);
+    person.lastName       = readString (in);
+    person.title          = readString (in);
+    person.nameSuffix     = readString (in);
+    person.fullName       = Person.joinNames (person.firstName, person.lastName);
+    person.birthKey       = in.readInt();
+    person.deathKey       = in.readInt();
+    person.noteOffset     = in.readLong();
+    person.noteLength     = in.readInt();
+    person.recordOffset   = offset;
+    person.spilled        = events;
+
+    count = in.readInt();
+    for (i = 0; i < count; i++)
+    {
+      event = events.add (readString (in), readString (in));
+      if ((date = readString (in)) != null)
+        events.dates[event] = new GedcomDate (date, in.readInt());
+      if ((place = readString (in)) != null)
+        events.places[event] = Parser.placeTable.find (place);
+    }
+  }
+
+  public long length ()
+  {
+    return length;
+  }
+
+  // Closes and deletes the temporary file
+  public synchronized void close () throws IOException
+  {
+    out.close();
+    data.close();
+    file.delete();
+  }
+
+  //+-------------------------------------------------+
+  //| Internal routines                               |
+  //+-------------------------------------------------+
+
+  private void writeString (String s) throws IOException
+  {
+    recordOut.writeBoolean (s != null);
+    if (s != null)
+      recordOut.writeUTF (s);
+  }
+
+  private static String readString (DataInputStream in) throws IOException
+  {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  // Writes the record length straight to the buffered file stream
+  private void writeInt (int value) throws IOException
+  {
+    out.write ((value >>> 24) & 0xFF);
+    out.write ((value >>> 16) & 0xFF);
+    out.write ((value >>>  8) & 0xFF);
+    out.write (value & 0xFF);
+  }
+}
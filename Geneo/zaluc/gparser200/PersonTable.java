@@ -0,0 +1,504 @@
+package zaluc.gparser200;
+
+import java.io.*;
+
+import zaluc.utils.*;
+
+//+-- Class PersonTable ------------------------------------------------------+
+//|                                                                           |
+//| Syntax:       class PersonTable                                           |
+//|                                                                           |
+//| Description:  The PersonTable class holds the people and families of a   |
+//|               sorted PeopleList as columns of primitive arrays, one entry |
+//|               per person or family, instead of as a graph of objects.     |
+//|               A person is known by its index in the sorted list, and a    |
+//|               family by its index in the family list, so following a     |
+//|               link is an array lookup rather than a pointer to somewhere  |
+//|               else on the heap.                                           |
+//|                                                                           |
+//|               The lists of a person's families and events, and of a      |
+//|               family's children, are kept one after the other in a single |
+//|               array, with an array of offsets saying where each one       |
+//|               starts.  The names are IDs in Parser.namePool and the birth |
+//|               and death dates are GedcomDate sort keys.                   |
+//|                                                                           |
+//|               The table is built once the list has been sorted, when the  |
+//|               A parameter is given, and is then used to work out the      |
+//|               order in which the data file is written.  The objects are   |
+//|               still used to write each person out.  In bounded memory     |
+//|               mode it is always built, from the PersonIndex that stands   |
+//|               in for the objects, and is the only copy of the links.      |
+//|                                                                           |
+//| Methods:      public static PersonTable build (PeopleList people)         |
+//|               public static PersonTable build (PersonIndex index,         |
+//|                                                SortedView  view)          |
+//|               public int[]  writeOrder      (int start)                   |
+//|               public long   bytes           ()                            |
+//|               public void   printComparison (PeopleList  people,          |
+//|                                              PrintStream out)             |
+//|                                                                           |
+//|---------------------------------------------------------------------------+
+
+class PersonTable
+{
+  public static final int NONE = -1;
+
+  int         count;                // People, including empty entries
+  int         familyCount;
+
+  // One entry per person.  The id of an empty entry is NONE.
+  int         ids[];
+  byte        sexes[];
+  int         birthKeys[];          // GedcomEvent.NO_DATE if unknown
+  int         deathKeys[];
+  int         fathers[];            // NONE if unknown
+  int         mothers[];
+  int         firstNames[];         // IDs in Parser.namePool, NONE if none
+  int         lastNames[];
+  int         familyStarts[];       // Families of person i are familyList[familyStarts[i]..familyStarts[i+1])
+  int         familyList[];
+  int         eventStarts[];        // Events of person i are events[eventStarts[i]..eventStarts[i+1])
+  int         events[];             // Indices in Parser.eventArena, only the ones held there
+
+  // One entry per family
+  int         familyFathers[];
+  int         familyMothers[];
+  int         childStarts[];        // Children of family f are childList[childStarts[f]..childStarts[f+1])
+  int         childList[];
+
+  // Rough sizes of the objects that the table stands in for, on a 64 bit
+  // VM with compressed references.  Used by printComparison.
+  private static final int VECTOR_BYTES = 32;    // A Vector, without its array
+  private static final int ARRAY_BYTES  = 16;    // The header of an array
+  private static final int REF_BYTES    = 4;
+  private static final int PERSON_LINK_BYTES = 48;  // The fields of a Person that the table has columns for
+  private static final int FAMILY_LINK_BYTES = 24;  // The same for a Family
+
+  private PersonTable (int count, int familyCount)
+  {
+    this.count       = count;
+    this.familyCount = familyCount;
+
+    ids          = new int[count];
+    sexes        = new byte[count];
+    birthKeys    = new int[count];
+    deathKeys    = new int[count];
+    fathers      = new int[count];
+    mothers      = new int[count];
+    firstNames   = new int[count];
+    lastNames    = new int[count];
+    familyStarts = new int[count + 1];
+    eventStarts  = new int[count + 1];
+
+    familyFathers = new int[familyCount];
+    familyMothers = new int[familyCount];
+    childStarts   = new int[familyCount + 1];
+  }
+
+  // Builds the table from a list that has been sorted and linked
+  public static PersonTable build (PeopleList people)
+  {
+    PersonTable table = new PersonTable (people.getCount(), people.getFamilyCount());
+    Person      person;
+    Family      family;
+    int         familyTotal = 0;
+    int         eventTotal  = 0;
+    int         childTotal  = 0;
+    int         i, j, n;
+
+    // Count the entries of the lists first, so they can be made the right
+    // size.
+    for (i = 0; i < table.count; i++)
+    {
+      if ((person = people.getPerson(i)) != null)
+      {
+        familyTotal += person.families.size();
+        eventTotal  += person.getEventCount();
+      }
+    }
+    for (i = 0; i < table.familyCount; i++)
+      childTotal += people.getFamily(i).children.size();
+
+    table.familyList = new int[familyTotal];
+    table.events     = new int[eventTotal];
+    table.childList  = new int[childTotal];
+
+    familyTotal = eventTotal = 0;
+    for (i = 0; i < table.count; i++)
+    {
+      table.familyStarts[i] = familyTotal;
+      table.eventStarts[i]  = eventTotal;
+
+      if ((person = people.getPerson(i)) == null)
+      {
+        table.ids[i]        = NONE;
+        table.birthKeys[i]  = table.deathKeys[i] = GedcomEvent.NO_DATE;
+        table.fathers[i]    = table.mothers[i]   = NONE;
+        table.firstNames[i] = table.lastNames[i] = NONE;
+        continue;
+      }
+
+      table.ids[i]        = person.id;
+      table.sexes[i]      = (byte) person.sex;
+      table.birthKeys[i]  = person.getBirthKey();
+      table.deathKeys[i]  = person.getDeathKey();
+      table.fathers[i]    = indexOf (person.father);
+      table.mothers[i]    = indexOf (person.mother);
+      table.firstNames[i] = Parser.namePool.id (person.firstName);
+      table.lastNames[i]  = Parser.namePool.id (person.lastName);
+
+      n = person.families.size();
+      for (j = 0; j < n; j++)
+        table.familyList[familyTotal++] =
+          ((Family) person.families.elementAt(j)).index;
+
+      n = person.getEventCount();
+      for (j = 0; j < n; j++)
+        table.events[eventTotal++] = person.getEventStart() + j;
+    }
+    table.familyStarts[table.count] = familyTotal;
+    table.eventStarts[table.count]  = eventTotal;
+
+    childTotal = 0;
+    for (i = 0; i < table.familyCount; i++)
+    {
+      family = people.getFamily(i);
+      table.childStarts[i]   = childTotal;
+      table.familyFathers[i] = indexOf (family.father);
+      table.familyMothers[i] = indexOf (family.mother);
+
+      n = family.children.size();
+      for (j = 0; j < n; j++)
+        table.childList[childTotal++] =
+          indexOf ((Person) family.children.elementAt(j));
+    }
+    table.childStarts[table.familyCount] = childTotal;
+
+    return table;
+  }
+
+  // Builds the table from the index of a list in bounded memory mode,
+  // once the index has been linked and sorted.  view gives the sorted
+  // order of the people, and the links are turned from the indices of
+  // xrefs into positions in it.
+  public static PersonTable build (PersonIndex index, SortedView view)
+  {
+    PersonTable table = new PersonTable (view.size(), index.familyCount);
+    Person      person;
+    int         familyTotal = 0;
+    int         eventTotal  = 0;
+    int         row;
+    int         family;
+    int         i, j, n;
+
+    // Only the people that weren't spilled have events in the arena
+    for (i = 0; i < table.count; i++)
+      if ((person = index.resident[view.row(i)]) != null)
+        eventTotal += person.getEventCount();
+
+    table.familyList = new int[index.familyList.length];
+    table.events     = new int[eventTotal];
+    table.childList  = new int[index.childList.length];
+
+    eventTotal = 0;
+    for (i = 0; i < table.count; i++)
+    {
+      row = view.row(i);
+      table.familyStarts[i] = familyTotal;
+      table.eventStarts[i]  = eventTotal;
+
+      table.ids[i]        = index.ids[row];
+      table.sexes[i]      = index.sexes[row];
+      table.birthKeys[i]  = index.birthKeys[row];
+      table.deathKeys[i]  = index.deathKeys[row];
+      table.firstNames[i] = index.firstNames[row];
+      table.lastNames[i]  = index.lastNames[row];
+      if ((family = index.childOf[row]) != PersonIndex.NONE)
+      {
+        table.fathers[i] = position (view, index.familyFathers[family]);
+        table.mothers[i] = position (view, index.familyMothers[family]);
+      }
+      else
+        table.fathers[i] = table.mothers[i] = NONE;
+
+      for (j = index.familyStarts[row]; j < index.familyStarts[row + 1]; j++)
+        table.familyList[familyTotal++] = index.familyList[j];
+
+      if ((person = index.resident[row]) != null)
+      {
+        n = person.getEventCount();
+        for (j = 0; j < n; j++)
+          table.events[eventTotal++] = person.getEventStart() + j;
+      }
+    }
+    table.familyStarts[table.count] = familyTotal;
+    table.eventStarts[table.count]  = eventTotal;
+
+    for (i = 0; i < table.familyCount; i++)
+    {
+      table.childStarts[i]   = index.childStarts[i];
+      table.familyFathers[i] = position (view, index.familyFathers[i]);
+      table.familyMothers[i] = position (view, index.familyMothers[i]);
+    }
+    table.childStarts[table.familyCount] = index.childStarts[table.familyCount];
+    for (i = 0; i < table.childList.length; i++)
+      table.childList[i] = view.position (index.childList[i]);
+
+    return table;
+  }
+
+  // Works out the order in which PeopleList.writeFrom writes the people
+  // and families, starting from the given person, without touching the
+  // objects.  The parents and the children of the start person are taken
+  // in breadth first order, in the same way as writeFrom:  the two lists
+  // share one chain of next links, so the steps are the same and so is
+  // the order.  A person is returned as its index and a family f as
+  // -(f + 1).
+  public int[] writeOrder (int start)
+  {
+    int     order[]  = new int[count + familyCount];
+    int     next[]   = new int[count];
+    boolean personWritten[] = new boolean[count];
+    boolean familyWritten[] = new boolean[familyCount];
+    int     n = 0;
+    int     parentHead, parentTail;
+    int     childHead,  childTail;
+    int     family;
+    int     i, j, k;
+
+    // The empty entries never get written
+    for (i = 0; i < count; i++)
+      personWritten[i] = (ids[i] == NONE);
+
+    parentHead = parentTail = start;
+    childHead  = childTail  = start;
+    next[start] = NONE;
+    while ((parentHead != NONE) || (childHead != NONE))
+    {
+      if (parentHead != NONE)
+      {
+        if (!personWritten[parentHead])
+        {
+          parentTail = append (next, parentTail, fathers[parentHead]);
+          parentTail = append (next, parentTail, mothers[parentHead]);
+          personWritten[parentHead] = true;
+          order[n++] = parentHead;
+        }
+        parentHead = next[parentHead];
+      }
+      if (childHead != NONE)
+      {
+        if (!personWritten[childHead])
+        {
+          for (j = familyStarts[childHead]; j < familyStarts[childHead + 1]; j++)
+          {
+            family = familyList[j];
+            if (!familyWritten[family])
+            {
+              familyWritten[family] = true;
+              order[n++] = -(family + 1);
+            }
+            if (((i = familyMothers[family]) != NONE) && !personWritten[i])
+            {
+              personWritten[i] = true;
+              order[n++] = i;
+            }
+            if (((i = familyFathers[family]) != NONE) && !personWritten[i])
+            {
+              personWritten[i] = true;
+              order[n++] = i;
+            }
+            for (k = childStarts[family]; k < childStarts[family + 1]; k++)
+              childTail = append (next, childTail, childList[k]);
+          }
+          if (!personWritten[childHead])
+          {
+            personWritten[childHead] = true;
+            order[n++] = childHead;
+          }
+        }
+        childHead = next[childHead];
+      }
+    }
+
+    // Then the rest of the people and families
+    for (i = 0; i < count; i++)
+      if (!personWritten[i])
+        order[n++] = i;
+    for (i = 0; i < familyCount; i++)
+      if (!familyWritten[i])
+        order[n++] = -(i + 1);
+
+    if (n < order.length)
+    {
+      int trimmed[] = new int[n];
+      System.arraycopy (order, 0, trimmed, 0, n);
+      order = trimmed;
+    }
+
+    return order;
+  }
+
+  // The bytes held by the arrays of the table
+  public long bytes ()
+  {
+    return ARRAY_BYTES * 16L +
+           count * (4L * 9 + 1) + 8L +
+           familyCount * 4L * 3 + 4 +
+           (familyList.length + childList.length) * 4L +
+           events.length * 4L;
+  }
+
+  // Prints the size of the table next to the size of the objects it
+  // stands in for, and how long the same walk over the people and
+  // families takes each way.  The walk goes from every person up to their
+  // parents and grandparents, and down to the children of each of their
+  // families.
+  public void printComparison (PeopleList people, PrintStream out)
+  {
+    long tableTime  = Long.MAX_VALUE;
+    long objectTime = Long.MAX_VALUE;
+    long tableSum   = 0;
+    long objectSum  = 0;
+    long startTime;
+    int  rep;
+
+    for (rep = 0; rep < 5; rep++)
+    {
+      startTime  = System.nanoTime();
+      tableSum   = walk();
+      tableTime  = Math.min (tableTime, System.nanoTime() - startTime);
+
+      startTime  = System.nanoTime();
+      objectSum  = walk (people);
+      objectTime = Math.min (objectTime, System.nanoTime() - startTime);
+    }
+
+    out.println ("Person table for " + count + " people and " + familyCount + " families:");
+    out.println ("   Table:        " + bytes() + " bytes, walk in " + (tableTime / 1000000) +
+                 " ms (checksum " + tableSum + ")");
+    out.println ("   Object graph: " + objectGraphBytes (people) + " bytes (estimated), walk in " +
+                 (objectTime / 1000000) + " ms (checksum " + objectSum + ")");
+  }
+
+  //+-------------------------------------------------+
+  //| Internal routines                               |
+  //+-------------------------------------------------+
+
+  // Adds a person to the end of a chain, like Person.append
+  private static int append (int next[], int tail, int person)
+  {
+    if (person != NONE)
+    {
+      next[tail]   = person;
+      next[person] = NONE;
+      return person;
+    }
+    return tail;
+  }
+
+  private static int indexOf (Person person)
+  {
+    return (person != null) ? person.getIndex() : NONE;
+  }
+
+  private static int position (SortedView view, int row)
+  {
+    return (row != PersonIndex.NONE) ? view.position (row) : NONE;
+  }
+
+  // The walk of printComparison, over the table
+  private long walk ()
+  {
+    long sum = 0;
+    int  i, j, k;
+
+    for (i = 0; i < count; i++)
+    {
+      sum += walkParent (fathers[i]) + walkParent (mothers[i]);
+      for (j = familyStarts[i]; j < familyStarts[i + 1]; j++)
+        for (k = childStarts[familyList[j]]; k < childStarts[familyList[j] + 1]; k++)
+          sum += birthKeys[childList[k]] & 0xFF;
+    }
+
+    return sum;
+  }
+
+  // The same walk, over the objects
+  private static long walk (PeopleList people)
+  {
+    long   sum   = 0;
+    int    count = people.getCount();
+    Person person;
+    Person p;
+    Family family;
+    int    i, j, k;
+
+    for (i = 0; i < count; i++)
+    {
+      if ((person = people.getPerson(i)) == null)
+        continue;
+      sum += walkParent (person.father) + walkParent (person.mother);
+      for (j = 0; j < person.families.size(); j++)
+      {
+        family = (Family) person.families.elementAt(j);
+        for (k = 0; k < family.children.size(); k++)
+        {
+          p = (Person) family.children.elementAt(k);
+          sum += p.getBirthKey() & 0xFF;
+        }
+      }
+    }
+
+    return sum;
+  }
+
+  private int walkParent (int parent)
+  {
+    if (parent == NONE)
+      return 0;
+    return (birthKeys[parent] & 0xFF) + ((fathers[parent] != NONE) ? 1 : 0) + ((mothers[parent] != NONE) ? 1 : 0);
+  }
+
+  private static int walkParent (Person parent)
+  {
+    if (parent == null)
+      return 0;
+    return (parent.getBirthKey() & 0xFF) +
+           ((parent.father != null) ? 1 : 0) + ((parent.mother != null) ? 1 : 0);
+  }
+
+  // Estimates the bytes taken by the parts of the object graph that the
+  // table has columns for:  the vectors that hold the lists, the sorted
+  // view of the people, and the link fields of the people and families.  The events and
+  // strings themselves are there either way, so they aren't counted.
+  private static long objectGraphBytes (PeopleList people)
+  {
+    long   ret   = 0;
+    int    count = people.getCount();
+    Person person;
+    Family family;
+    int    i;
+
+    ret += ARRAY_BYTES + count * (long) REF_BYTES;      // The people vector
+    ret += 2 * ARRAY_BYTES;                             // The sorted view's arrays
+    for (i = 0; i < count; i++)
+    {
+      if ((person = people.getPerson(i)) == null)
+        continue;
+      ret += PERSON_LINK_BYTES + 8;                    // And its row and position in the view
+      ret += VECTOR_BYTES + ARRAY_BYTES + person.families.capacity() * REF_BYTES;
+      ret += 8;                                            // The event start and count
+    }
+
+    ret += ARRAY_BYTES + people.getFamilyCount() * (long) REF_BYTES;   // The family vector
+    for (i = 0; i < people.getFamilyCount(); i++)
+    {
+      family = people.getFamily(i);
+      ret += FAMILY_LINK_BYTES;
+      ret += VECTOR_BYTES + ARRAY_BYTES + family.children.capacity() * REF_BYTES;
+    }
+
+    return ret;
+  }
+}
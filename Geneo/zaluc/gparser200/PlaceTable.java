@@ -0,0 +1,289 @@
+package zaluc.gparser200;
+
+import java.io.*;
+
+//+-- Class PlaceTable -------------------------------------------------------+
+//|                                                                           |
+//| Syntax:       class PlaceTable                                            |
+//|                                                                           |
+//| Description:  The PlaceTable class keeps every place in the file as a     |
+//|               tree of jurisdictions.  A PLAC value like "Springfield,     |
+//|               Sangamon, Illinois, USA" is split at the commas, and each   |
+//|               part is a place whose parent is the part after it, so USA  |
+//|               is a place of its own, Illinois is a place in USA, and so  |
+//|               on.  Each place is stored once, however many events and     |
+//|               other places use it, and is known by an int ID.  An event   |
+//|               only keeps the ID of its place.                             |
+//|                                                                           |
+//|               The parts are trimmed of spaces, and the full name of a     |
+//|               place is put back together with a comma and a space        |
+//|               between the parts, so "Springfield,Sangamon" and            |
+//|               "Springfield, Sangamon" are the same place.  An empty part  |
+//|               is kept, since the position of a part says what kind of     |
+//|               jurisdiction it is.                                         |
+//|                                                                           |
+//|               Since a place is an ID and the IDs of its parents, finding  |
+//|               everything in a county is a matter of walking up from each |
+//|               ID, see within.  No strings are compared.                  |
+//|                                                                           |
+//|               A table is only used by one thread at a time, so it takes  |
+//|               no locks.  Each parser thread has a table of its own, see   |
+//|               ParallelParser, and PeopleList.merge adds its places to     |
+//|               Parser.placeTable with internAll.  After that,              |
+//|               Parser.placeTable is only read.                             |
+//|                                                                           |
+//| Methods:      public int     intern    (String place)                     |
+//|               public int     find      (String place)                     |
+//|               public int[]   internAll (PlaceTable other)                 |
+//|               public String  name      (int id)                           |
+//|               public String  part      (int id)                           |
+//|               public int     parent    (int id)                           |
+//|               public boolean within    (int id, int ancestor)             |
+//|               public int     size      ()                                 |
+//|               public void    printStats (PrintStream out)                 |
+//|                                                                           |
+//|---------------------------------------------------------------------------+
+
+class PlaceTable
+{
+  public static final int NONE = -1;       // The ID for no place
+
+  private String parts[];                  // The part of each place's name, by ID
+  private int    parents[];                // The parent of each place, by ID, or NONE
+  private String names[];                  // Full names, made when they're first asked for
+  private int    slots[];                  // ID + 1 of the place in each slot, 0 if empty
+  private int    count = 0;
+
+  public PlaceTable ()
+  {
+    this (1024);
+  }
+
+  public PlaceTable (int expectedCount)
+  {
+    int size = 16;
+
+    while (size < expectedCount * 2)
+      size *= 2;
+
+    slots   = new int[size];
+    parts   = new String[size / 2];
+    parents = new int[size / 2];
+    names   = new String[size / 2];
+  }
+
+  // Returns the ID of the place, adding it and any of its parents that
+  // are new.  Returns NONE if place is null.
+  public int intern (String place)
+  {
+    return lookup (place, true);
+  }
+
+  // Returns the ID of the place, or NONE if it isn't in the table
+  public int find (String place)
+  {
+    return lookup (place, false);
+  }
+
+  // Adds every place of another table, a parser thread's, to this one.
+  // Returns an array that gives, for each place ID in the other table,
+  // the ID in this one.  A parent's ID is always lower than its child's,
+  // so it is translated before the child is looked up.
+  public int[] internAll (PlaceTable other)
+  {
+    int remap[] = new int[other.count];
+    int parent;
+    int slot;
+    int i;
+
+    for (i = 0; i < other.count; i++)
+    {
+      parent = (other.parents[i] != NONE) ? remap[other.parents[i]] : NONE;
+      slot   = probe (parent, other.parts[i], 0, other.parts[i].length());
+      if (slots[slot] != 0)
+        remap[i] = slots[slot] - 1;
+      else
+        remap[i] = add (parent, other.parts[i], slot);
+    }
+
+    return remap;
+  }
+
+  // Returns the full name of the place, or null for NONE
+  public String name (int id)
+  {
+    StringBuffer buf;
+    int          i;
+
+    if (id == NONE)
+      return null;
+
+    if (names[id] == null)
+    {
+      buf = new StringBuffer (parts[id]);
+      for (i = parents[id]; i != NONE; i = parents[i])
+        buf.append (", ").append (parts[i]);
+      names[id] = buf.toString();
+    }
+
+    return names[id];
+  }
+
+  // Returns this place's own part of the name, like "Sangamon"
+  public String part (int id)
+  {
+    return parts[id];
+  }
+
+  public int parent (int id)
+  {
+    return parents[id];
+  }
+
+  // True if the place is the ancestor, or is somewhere inside it
+  public boolean within (int id, int ancestor)
+  {
+    for (; id != NONE; id = parents[id])
+      if (id == ancestor)
+        return true;
+
+    return false;
+  }
+
+  public int size ()
+  {
+    return count;
+  }
+
+  public void printStats (PrintStream out)
+  {
+    int tops = 0;
+    int i;
+
+    for (i = 0; i < count; i++)
+      if (parents[i] == NONE)
+        tops++;
+
+    out.println ("Place table: " + count + " places, " + tops + " at the top level");
+  }
+
+  //+-------------------------------------------------+
+  //| Internal routines                               |
+  //+-------------------------------------------------+
+
+  // Walks the parts of the place from the last to the first, finding, or
+  // adding if add is set, the place for each part in the one after it.
+  private int lookup (String place, boolean add)
+  {
+    int id = NONE;
+    int end;
+    int start;
+    int comma;
+    int slot;
+
+    if (place == null)
+      return NONE;
+
+    end = place.length();
+    while (end >= 0)
+    {
+      comma = place.lastIndexOf (',', end - 1);
+      start = comma + 1;
+
+      // Trim the part
+      while ((start < end) && (place.charAt (start) == ' '))
+        start++;
+      while ((end > start) && (place.charAt (end - 1) == ' '))
+        end--;
+
+      slot = probe (id, place, start, end);
+      if (slots[slot] != 0)
+        id = slots[slot] - 1;
+      else if (add)
+        id = add (id, place.substring (start, end), slot);
+      else
+        return NONE;
+
+      end = comma;
+    }
+
+    return id;
+  }
+
+  // Finds the slot that holds the place with the given parent and part,
+  // or the empty slot where it belongs.
+  private int probe (int parent, String place, int start, int end)
+  {
+    int mask = slots.length - 1;
+    int slot = hash (parent, place, start, end) & mask;
+    int len  = end - start;
+    int id;
+
+    while ((id = slots[slot] - 1) >= 0)
+    {
+      if ((parents[id] == parent) && (parts[id].length() == len) &&
+          parts[id].regionMatches (0, place, start, len))
+        break;
+      slot = (slot + 1) & mask;
+    }
+
+    return slot;
+  }
+
+  private int add (int parent, String part, int slot)
+  {
+    int id;
+
+    if ((count + 1) * 2 > slots.length)
+    {
+      grow();
+      slot = probe (parent, part, 0, part.length());
+    }
+
+    id = count++;
+    parts[id]   = part;
+    parents[id] = parent;
+    slots[slot] = id + 1;
+
+    return id;
+  }
+
+  // Doubles the table and puts every place back into it
+  private void grow ()
+  {
+    String newParts[]   = new String[parts.length * 2];
+    int    newParents[] = new int[parts.length * 2];
+    String newNames[]   = new String[parts.length * 2];
+    int    mask;
+    int    slot;
+    int    i;
+
+    System.arraycopy (parts,   0, newParts,   0, count);
+    System.arraycopy (parents, 0, newParents, 0, count);
+    System.arraycopy (names,   0, newNames,   0, count);
+    parts   = newParts;
+    parents = newParents;
+    names   = newNames;
+
+    slots = new int[slots.length * 2];
+    mask  = slots.length - 1;
+    for (i = 0; i < count; i++)
+    {
+      slot = hash (parents[i], parts[i], 0, parts[i].length()) & mask;
+      while (slots[slot] != 0)
+        slot = (slot + 1) & mask;
+      slots[slot] = i + 1;
+    }
+  }
+
+  private static int hash (int parent, String s, int start, int end)
+  {
+    int h = parent;
+    int i;
+
+    for (i = start; i < end; i++)
+      h = 31 * h + s.charAt (i);
+
+    return h ^ (h >>> 16);
+  }
+}
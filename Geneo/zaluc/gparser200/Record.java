@@ -48,6 +48,12 @@ public class Record
   protected DataOutputStream outputStream;
   protected DataInputStream  inputStream;
 
+  // A buffer that a long value, like a person's details, can be put
+  // together in and written from, and the bytes it is encoded into.  Both
+  // are kept from one record to the next.
+  private StringBuffer       buffer;
+  private byte               utf[];
+
   public Record(DataOutputStream d)
   {
     outputStream = d;
@@ -79,19 +85,63 @@ public class Record
   public void write(int    recordType,
                     String stringValue) throws IOException
   {
-    StringBuffer strBuf = new StringBuffer(stringValue);
-    char         ch;
-    int          i;
+    writeEncoded(recordType, stringValue);
+  }
 
-    for (i = 0; i < strBuf.length(); i++)
+  // Writes the value that has been put together in buffer()
+  public void write(int          recordType,
+                    StringBuffer bufferValue) throws IOException
+  {
+    writeEncoded(recordType, bufferValue);
+  }
+
+  // Returns the record's buffer, emptied, for putting a value together in
+  public StringBuffer buffer()
+  {
+    if (buffer == null)
+      buffer = new StringBuffer(1024);
+    buffer.setLength(0);
+    return buffer;
+  }
+
+  // Writes the value the way writeUTF would write the value with each
+  // char XORed with 0xFF, without making the XORed copy.  The chars are
+  // encoded into utf, which is kept for the next value.
+  private void writeEncoded(int          recordType,
+                            CharSequence value) throws IOException
+  {
+    int  count = value.length();
+    int  len   = 0;
+    char ch;
+    int  i;
+
+    if ((utf == null) || (utf.length < count * 3))
+      utf = new byte[Math.max(count * 3, 1024)];
+
+    for (i = 0; i < count; i++)
     {
-      ch = strBuf.charAt(i);
-      ch ^= 0xFF;
-      strBuf.setCharAt(i, ch);
+      ch = (char) (value.charAt(i) ^ 0xFF);
+      if ((ch >= 0x0001) && (ch <= 0x007F))
+        utf[len++] = (byte) ch;
+      else if (ch <= 0x07FF)
+      {
+        utf[len++] = (byte) (0xC0 | (ch >> 6));
+        utf[len++] = (byte) (0x80 | (ch & 0x3F));
+      }
+      else
+      {
+        utf[len++] = (byte) (0xE0 | (ch >> 12));
+        utf[len++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+        utf[len++] = (byte) (0x80 | (ch & 0x3F));
+      }
     }
 
+    if (len > 65535)
+      throw new UTFDataFormatException("encoded string too long: " + len + " bytes");
+
     outputStream.writeByte(recordType);
-    outputStream.writeUTF(new String(strBuf));
+    outputStream.writeShort(len);
+    outputStream.write(utf, 0, len);
   }
 
   public int readRecordType() throws IOException
@@ -0,0 +1,112 @@
+package zaluc.gparser200;
+
+import java.io.*;
+
+//+-- Class RecordCounts -----------------------------------------------------+
+//|                                                                           |
+//| Syntax:       class RecordCounts                                          |
+//|                                                                           |
+//| Description:  The RecordCounts class makes a quick pass over a gedcom     |
+//|               file and counts the INDI and FAM records in it, so that     |
+//|               the tables that hold them can be given the right size from  |
+//|               the start.  Only lines that start with a '0' are looked at; |
+//|               the rest are skipped a byte at a time without being split   |
+//|               into parts.                                                 |
+//|                                                                           |
+//| Methods:      public static RecordCounts scan (InputStream source)        |
+//|                                                                           |
+//|---------------------------------------------------------------------------+
+
+class RecordCounts
+{
+  private static final int MAX_LINE = 80;   // Longest level 0 line we look at
+
+  public int people   = 0;
+  public int families = 0;
+
+  public static RecordCounts scan (InputStream source) throws IOException
+  {
+    RecordCounts counts   = new RecordCounts();
+    byte         buf[]    = new byte[65536];
+    byte         line[]   = new byte[MAX_LINE];
+    int          lineLen  = 0;
+    boolean      atStart  = true;    // At the start of a line
+    boolean      inLevel0 = false;   // Collecting a level 0 line
+    int          count;
+    int          i;
+    byte         b;
+
+    try
+    {
+      while ((count = source.read (buf, 0, buf.length)) >= 0)
+      {
+        for (i = 0; i < count; i++)
+        {
+          b = buf[i];
+          if ((b == '\n') || (b == '\r'))
+          {
+            if (inLevel0)
+              counts.count (line, lineLen);
+            atStart  = true;
+            inLevel0 = false;
+          }
+          else if (atStart)
+          {
+            atStart  = false;
+            inLevel0 = (b == '0');
+            lineLen  = 0;
+            line[lineLen++] = b;
+          }
+          else if (inLevel0 && (lineLen < MAX_LINE))
+          {
+            line[lineLen++] = b;
+          }
+        }
+      }
+
+      if (inLevel0)
+        counts.count (line, lineLen);
+    }
+    finally
+    {
+      source.close();
+    }
+
+    return counts;
+  }
+
+  // Looks at a level 0 line, "0 @xref@ TAG", and counts it if the tag is
+  // INDI or FAM.
+  private void count (byte line[], int len)
+  {
+    int i = 1;
+    int start;
+
+    if ((len < 2) || ((line[1] != ' ') && (line[1] != '\t')))
+      return;
+
+    while ((i < len) && ((line[i] == ' ') || (line[i] == '\t')))
+      i++;
+    if ((i < len) && (line[i] == '@'))
+    {
+      while ((i < len) && (line[i] != ' ') && (line[i] != '\t'))
+        i++;
+      while ((i < len) && ((line[i] == ' ') || (line[i] == '\t')))
+        i++;
+    }
+
+    start = i;
+    while ((i < len) && (line[i] != ' ') && (line[i] != '\t'))
+      i++;
+
+    switch (GedcomTags.lookup (line, start, i))
+    {
+      case GedcomTags.INDI:
+        people++;
+        break;
+      case GedcomTags.FAM:
+        families++;
+        break;
+    }
+  }
+}
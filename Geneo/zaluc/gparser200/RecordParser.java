@@ -0,0 +1,596 @@
+package zaluc.gparser200;
+
+import java.lang.*;
+import java.io.*;
+import java.util.*;
+
+//+-- Class RecordParser -----------------------------------------------------+
+//|                                                                           |
+//| Syntax:       class RecordParser                                          |
+//|                                                                           |
+//| Description:  The RecordParser class parses the person and family         |
+//|               records that a GedcomScanner reads.  It can work in one of  |
+//|               two ways:                                                   |
+//|                                                                           |
+//|               If it is given a PeopleList, each record is put straight    |
+//|               into that list.  This is the way a whole file is parsed on  |
+//|               one thread.                                                 |
+//|                                                                           |
+//|               If it is not given a PeopleList, the records are collected  |
+//|               in its own partial tables.  This is the way one chunk of a  |
+//|               file is parsed by a worker thread.  The partial tables are  |
+//|               merged by PeopleList.merge.  The worker also gives the      |
+//|               parser its own name pool, event arena and place table, so   |
+//|               the threads never share one.                                |
+//|                                                                           |
+//|               Either way, the people named in a family record are not     |
+//|               looked up while the file is read.  They are recorded in the |
+//|               links table, and resolved by PeopleList.resolveLinks once  |
+//|               every record has been read, so a family may come before    |
+//|               the people in it.                                           |
+//|                                                                           |
+//| Methods:      public void parseAll    () throws IOException               |
+//|                                                                           |
+//|               void parsePerson        (int personIndex,                   |
+//|                                        int personId) throws IOException   |
+//|                                                                           |
+//|               void parseName          (Person person) throws IOException  |
+//|                                                                           |
+//|               int parseEvent          (String eventType,                  |
+//|                                        String eventValue)                 |
+//|                                                                           |
+//|               GedcomDate parseDate    ()                                  |
+//|                                                                           |
+//|               int parsePlace          ()                                  |
+//|                                                                           |
+//|               void parseNote          () throws IOException               |
+//|                                                                           |
+//|               void parseFamily        (int familyIndex) throws IOException|
+//|                                                                           |
+//|---------------------------------------------------------------------------+
+
+class RecordParser
+{
+  //+--------------------------------------------------------------+
+  //| Handler tables.  Each kind of record has a table, indexed by |
+  //| the GedcomTags code of a line, that says which handler deals |
+  //| with the line.  A tag that isn't registered gets DEFAULT.    |
+  //+--------------------------------------------------------------+
+
+  // Handlers
+  static final int DEFAULT  =  0;
+  static final int SKIP     =  1;
+  static final int NAME     =  2;
+  static final int BIRTH    =  3;
+  static final int DEATH    =  4;
+  static final int EVENT    =  5;
+  static final int NOTE     =  6;
+  static final int TITLE    =  7;
+  static final int FAMC     =  8;
+  static final int SEX      =  9;
+  static final int HUSBAND  = 10;
+  static final int WIFE     = 11;
+  static final int CHILD    = 12;
+  static final int MARRIAGE = 13;
+  static final int DATE     = 14;
+  static final int PLACE    = 15;
+  static final int TYPE     = 16;
+  static final int SUFFIX   = 17;
+
+  static final int    personHandlers[] = new int[GedcomTags.COUNT];  // Level 1 of an INDI
+  static final int    nameHandlers[]   = new int[GedcomTags.COUNT];  // Level 2 of a NAME
+  static final int    eventHandlers[]  = new int[GedcomTags.COUNT];  // Level 2 of an event
+  static final int    familyHandlers[] = new int[GedcomTags.COUNT];  // Level 1 of a FAM
+  static final String eventTypes[]     = new String[GedcomTags.COUNT];  // Name of each event
+
+  // The tags that are skipped, with everything under them, without being
+  // looked at.  "_" stands for every tag that starts with an underscore,
+  // which is how programs add their own tags.  By default only the tags
+  // that were always ignored are skipped.  CHAN and "_" can be added with
+  // the K parameter, see Parser.
+  static final String DEFAULT_SKIP_TAGS = "SOUR,OBJE,REPO";
+  static boolean      skipVendorTags;
+
+  static
+  {
+    setSkipTags(DEFAULT_SKIP_TAGS);
+  }
+
+  // Fills in the handler tables
+  static void registerHandlers()
+  {
+    int i;
+
+    for (i = 0; i < GedcomTags.COUNT; i++)
+    {
+      personHandlers[i] = nameHandlers[i] = eventHandlers[i] = familyHandlers[i] = DEFAULT;
+      eventTypes[i] = null;
+    }
+
+    personHandlers[GedcomTags.NAME] = NAME;
+    personHandlers[GedcomTags.NOTE] = NOTE;
+    personHandlers[GedcomTags.TITL] = TITLE;
+    personHandlers[GedcomTags.FAMC] = FAMC;
+    personHandlers[GedcomTags.SEX]  = SEX;
+    personHandlers[GedcomTags.FAMS] = SKIP;
+    personHandlers[GedcomTags.FAMF] = SKIP;
+
+    registerEvent(GedcomTags.BIRT, BIRTH, "Birth");
+    registerEvent(GedcomTags.DEAT, DEATH, "Death");
+    registerEvent(GedcomTags.CHR,  EVENT, "Christened");
+    registerEvent(GedcomTags.ADOP, EVENT, "Adopted");
+    registerEvent(GedcomTags.RESI, EVENT, "Residence");
+
+    nameHandlers[GedcomTags.NSFX]   = SUFFIX;
+
+    eventHandlers[GedcomTags.DATE]  = DATE;
+    eventHandlers[GedcomTags.PLAC]  = PLACE;
+    eventHandlers[GedcomTags.TYPE]  = TYPE;
+
+    familyHandlers[GedcomTags.HUSB] = HUSBAND;
+    familyHandlers[GedcomTags.WIFE] = WIFE;
+    familyHandlers[GedcomTags.CHIL] = CHILD;
+    familyHandlers[GedcomTags.MARR] = MARRIAGE;
+  }
+
+  // Sets the tags that are skipped in person and family records from a
+  // list like "SOUR,OBJE,_".  Returns false if a tag in the list isn't one
+  // that GedcomTags knows.
+  static boolean setSkipTags(String list)
+  {
+    StringTokenizer t = new StringTokenizer(list, ", ");
+    String          name;
+    int             code;
+
+    registerHandlers();
+    skipVendorTags = false;
+
+    while (t.hasMoreTokens())
+    {
+      name = t.nextToken().toUpperCase();
+      if (name.equals("_"))
+        skipVendorTags = true;
+      else if ((code = GedcomTags.lookup(name)) == GedcomTags.UNKNOWN)
+        return false;
+      else
+        personHandlers[code] = familyHandlers[code] = SKIP;
+    }
+
+    return true;
+  }
+
+  // Registers a level 1 tag of an INDI record as an event with a name
+  static void registerEvent(int tag, int handler, String type)
+  {
+    personHandlers[tag] = handler;
+    eventTypes[tag]     = type;
+  }
+
+  private GedcomScanner scanner;
+  private Restrictions  restrict;
+  private PeopleList    people;         // null when collecting partial tables
+
+  Vector                newPeople;      // Partial tables, used when people is null
+  Vector                newFamilies;
+  XrefMap               personIds;      // Dense indices for the xrefs
+  XrefMap               familyIds;
+  LinkTable             links = new LinkTable();
+  int                   dateCount = 0;  // Dates parsed, for the memory statistics
+  ValueCache            dateCache;      // Parsed DATE values, by their bytes
+  ValueCache            placeCache;     // Place table IDs of PLAC values, by their bytes
+  NamePool              namePool = Parser.namePool;   // Or the worker thread's, see above
+  EventArena            eventArena = Parser.eventArena;
+  PlaceTable            placeTable = Parser.placeTable;
+  int                   eventStart;     // This parser's events in eventArena, from
+  int                   eventEnd;       // eventStart up to eventEnd
+  int                   stringMap[];    // Set for PeopleList.merge, see ParallelParser
+  int                   placeMap[];
+  private StringBuffer  notes = new StringBuffer();   // Notes of the person being parsed
+  private EventArena.Pending events = new EventArena.Pending();  // Events of the person being parsed
+
+  public RecordParser(GedcomScanner scanner,
+                      Restrictions  restrict,
+                      PeopleList    people)
+  {
+    this (scanner, restrict, people, new ValueCache(), new ValueCache());
+  }
+
+  // The caches can be kept from one parser to the next, as long as they
+  // are used on one thread.
+  public RecordParser(GedcomScanner scanner,
+                      Restrictions  restrict,
+                      PeopleList    people,
+                      ValueCache    dateCache,
+                      ValueCache    placeCache)
+  {
+    this.scanner    = scanner;
+    this.restrict   = restrict;
+    this.people     = people;
+    this.dateCache  = dateCache;
+    this.placeCache = placeCache;
+
+    if (people == null)
+    {
+      newPeople   = new Vector();
+      newFamilies = new Vector();
+      personIds   = new XrefMap();
+      familyIds   = new XrefMap();
+    }
+    else
+    {
+      personIds   = people.personIds;
+      familyIds   = people.familyIds;
+    }
+  }
+
+  // Parses every record that the scanner has left to read
+  public void parseAll() throws IOException
+  {
+    int index;
+
+    eventStart = eventArena.size();
+    scanner.next();
+
+    while (!scanner.atEnd())
+    {
+      if (scanner.level == 0)
+      {
+        // This is the start of a new person, family, or something
+        if ((scanner.tag == GedcomTags.INDI) &&
+            ((index = scanner.internXref (personIds)) >= 0))
+          parsePerson (index, scanner.xrefDigits());
+        else if ((scanner.tag == GedcomTags.FAM) &&
+                 ((index = scanner.internXref (familyIds)) >= 0))
+          parseFamily (index);
+        else
+        {
+          if ((scanner.tag == GedcomTags.INDI) || (scanner.tag == GedcomTags.FAM))
+            scanner.error(ParseErrors.NO_XREF);
+          scanner.skipSubtree();
+        }
+      }
+      else
+        scanner.next();
+    }
+    eventEnd = eventArena.size();
+  }
+
+  // personIndex is the dense index of the person's xref, personId is the
+  // number in the xref, or -1 if it doesn't have one.
+  void parsePerson (int personIndex, int personId) throws IOException
+  {
+    Person person;
+
+    person = new Person();
+    person.xrefIndex = personIndex;
+    person.id = (personId >= 0) ? personId : personIndex + 1;
+    person.includeDetails = Parser.includeDetails;
+
+    if (Parser.verbose)
+      System.out.println("Parsing person " + person.id);
+
+    scanner.next();
+
+    while (!scanner.atEnd() &&
+           (scanner.level != 0))
+    {
+      if (scanner.level == 1)
+      {
+        switch (personHandlers[scanner.tag])
+        {
+          case NAME:
+            parseName(person);
+            break;
+          case BIRTH:
+            person.birth = parseEvent(eventTypes[scanner.tag], null);
+            break;
+          case DEATH:
+            person.death = parseEvent(eventTypes[scanner.tag], null);
+            break;
+          case EVENT:
+            parseEvent(eventTypes[scanner.tag], null);
+            break;
+          case NOTE:
+            parseNote();
+            break;
+          case TITLE:
+            person.title = namePool.intern(scanner.value());
+            scanner.next();
+            break;
+          case FAMC:
+            if (person.preferredFamily == -1)
+            {
+              // This is the first FAMC record, so it represents the
+              // preferred family.
+
+              person.preferredFamily = scanner.internValueXref (familyIds);
+            }
+            scanner.next();
+            break;
+          case SEX:
+            if (scanner.valueStartsWith ("F"))
+              person.sex = Person.female;
+            else
+              person.sex = Person.male;
+            scanner.next();
+            break;
+          case SKIP:
+            scanner.skipSubtree();   // Skips these, and everything under them.
+            break;
+          default:
+            // Anything else is an event named by its TYPE line
+            if (skipVendorTags && scanner.tagStartsWith("_"))
+              scanner.skipSubtree();
+            else
+              parseEvent(null, scanner.value());
+        }
+      }
+      else
+        scanner.next();
+    }
+
+    // Combine first and last name into a single string
+    person.fullName = Person.joinNames(person.firstName, person.lastName);
+
+    if (notes.length() > 0)
+    {
+      person.setNote(Parser.noteStore.append(notes), notes.length());
+      notes.setLength(0);
+    }
+
+    if (person.birth != EventArena.NONE)
+    {
+      person.birthKey = events.dateKey(person.birth);
+      person.hide = restrict.hide(person, person.birthKey);
+    }
+    if (person.death != EventArena.NONE)
+      person.deathKey = events.dateKey(person.death);
+    storePerson(person);
+
+    if (people != null)
+      people.setPerson(person, personIndex);
+    else
+      newPeople.addElement(person);
+  }
+
+  // Moves the events of the person that was just parsed to the event
+  // arena, in date order.  In bounded memory mode, once the heap is over
+  // the ceiling, the whole person is written to the person store instead,
+  // and the list only keeps what PersonIndex needs of the Person.
+  private void storePerson (Person person) throws IOException
+  {
+    if ((Parser.personStore != null) && Parser.personStore.spilling())
+    {
+      events.sort();
+      person.recordOffset = Parser.personStore.write(person, events, placeTable);
+    }
+    else if (events.count > 0)
+      person.setEvents(eventArena.add(events, person.id), events.count);
+
+    events.clear();
+  }
+
+  // This routine breaks a full name into a first name and a last name.
+  // The last name is the part between slashes, as in "John /Smith/".  A
+  // name without slashes is all first name.  A name with only one slash,
+  // or no name at all, is noted as an error and split as well as it can
+  // be.  The names are shared through the name pool, since most of them
+  // are used by many people.
+  void parseName (Person person) throws IOException
+  {
+    NamePool pool        = namePool;
+    String   name        = scanner.value();
+    int      firstSlash;
+    int      secondSlash;
+    int      firstEnd;
+
+    if (name == null)
+      scanner.error(ParseErrors.BAD_NAME);
+    else if ((firstSlash = name.indexOf('/')) < 0)
+      person.firstName = pool.intern(name);
+    else
+    {
+      secondSlash = name.indexOf('/', firstSlash + 1);
+      if (secondSlash < 0)
+      {
+        scanner.error(ParseErrors.BAD_NAME);
+        secondSlash = name.length();
+      }
+
+      firstEnd = firstSlash;
+      while ((firstEnd > 0) &&
+             (name.charAt(firstEnd - 1) == ' '))  // trim off some spaces that some gedcom files have
+        firstEnd--;
+
+      if (firstEnd > 0)
+        person.firstName = pool.intern(name, 0, firstEnd);
+      if (secondSlash > firstSlash + 1)
+        person.lastName = pool.intern(name, firstSlash + 1, secondSlash);
+    }
+
+    scanner.next();
+
+    while (scanner.level >= 2)
+    {
+      if ((scanner.level == 2) &&
+          (nameHandlers[scanner.tag] == SUFFIX))
+      {
+        person.nameSuffix = namePool.intern(scanner.value());
+      }
+      scanner.skipSubtree();
+    }
+  }
+
+  // Adds the event to the pending events and returns its index there
+  int parseEvent(String eventType, String eventValue) throws IOException
+  {
+    int event = events.add(eventType, eventValue);
+
+    scanner.next();
+
+    while (scanner.level >= 2)
+    {
+      if (scanner.level == 2)
+      {
+        switch (eventHandlers[scanner.tag])
+        {
+          case DATE:
+            events.dates[event] = parseDate();
+            dateCount++;
+            break;
+          case PLACE:
+            events.places[event] = parsePlace();
+            break;
+          case TYPE:
+            events.types[event] = scanner.value();
+            break;
+        }
+      }
+      scanner.skipSubtree();    // Nothing under these is used
+    }
+
+    return event;
+  }
+
+  // Returns the date on the current line.  A date that has been seen
+  // recently is only parsed the first time, and is shared after that.
+  GedcomDate parseDate()
+  {
+    GedcomDate date;
+
+    if ((date = (GedcomDate) scanner.cachedValue(dateCache)) == null)
+    {
+      date = new GedcomDate(scanner.value());
+      scanner.cacheValue(dateCache, date);
+    }
+
+    return date;
+  }
+
+  // Returns the ID in the place table of the place on the current line.
+  // The IDs of recently seen places are cached like the dates, so the
+  // value doesn't have to be split up again.
+  int parsePlace()
+  {
+    Integer place;
+
+    if (!scanner.hasValue())
+      return PlaceTable.NONE;
+
+    if ((place = (Integer) scanner.cachedValue(placeCache)) == null)
+    {
+      place = Integer.valueOf(placeTable.intern(scanner.value()));
+      scanner.cacheValue(placeCache, place);
+    }
+
+    return place.intValue();
+  }
+
+  // Reads a NOTE and its CONT and CONC lines into the notes buffer.  The
+  // buffer collects all the notes of the person being parsed, and is
+  // written to the note store once the person is done, so the text of a
+  // note is only in memory while its record is being read.  A note that
+  // points to a NOTE record is skipped.
+  void parseNote() throws IOException
+  {
+    int     noteLevel = scanner.level;
+    boolean keep      = (Parser.noteStore != null) && !scanner.valueStartsWith("@");
+
+    if (keep)
+    {
+      if (notes.length() > 0)
+        notes.append('\n');
+      appendValue();
+    }
+    scanner.next();
+
+    while (scanner.level > noteLevel)
+    {
+      if (keep && (scanner.level == noteLevel + 1))
+      {
+        if (scanner.tag == GedcomTags.CONT)
+        {
+          notes.append('\n');
+          appendValue();
+        }
+        else if (scanner.tag == GedcomTags.CONC)
+          appendValue();
+      }
+      scanner.next();
+    }
+  }
+
+  private void appendValue()
+  {
+    String value = scanner.textValue();
+
+    if (value != null)
+      notes.append(value);
+  }
+
+
+  // parseFamily: This routine parses a family record in a GEDCOM file.  The
+  //              links to the people in the family are recorded by the
+  //              number of the family in this parser, i.e. its index in the
+  //              PeopleList or in the partial family table.  familyIndex is
+  //              the dense index of the family's xref.
+  void parseFamily (int familyIndex) throws IOException
+  {
+    Family family = null;
+    int    familyNum;
+    int    personIndex;
+
+    if (Parser.verbose)
+      System.out.println("Parsing family " + familyIds.key(familyIndex));
+
+    family = new Family();
+    family.id = familyIndex;
+    if (people != null)
+      familyNum = people.getFamilyCount();
+    else
+      familyNum = newFamilies.size();
+
+    scanner.next();
+
+    while (!scanner.atEnd() &&
+           (scanner.level != 0))
+    {
+      if (scanner.level == 1)
+      {
+        switch (familyHandlers[scanner.tag])
+        {
+          case HUSBAND:
+            if ((personIndex = scanner.internValueXref (personIds)) >= 0)
+              links.add(familyNum, LinkTable.HUSBAND, personIndex);
+            scanner.next();
+            break;
+          case WIFE:
+            if ((personIndex = scanner.internValueXref (personIds)) >= 0)
+              links.add(familyNum, LinkTable.WIFE, personIndex);
+            scanner.next();
+            break;
+          case CHILD:
+            if ((personIndex = scanner.internValueXref (personIds)) >= 0)
+              links.add(familyNum, LinkTable.CHILD, personIndex);
+            scanner.next();
+            break;
+          case MARRIAGE:
+            family.marriage = events.toEvent(parseEvent("Marriage", null));
+            events.clear();
+            break;
+          default:
+            scanner.skipSubtree();
+        }
+      }
+      else
+        scanner.next();
+    }
+
+    // The family is added once it has its marriage, since in bounded
+    // memory mode only the marriage is kept of it, see PersonIndex
+    if (people != null)
+      people.setFamily(family);
+    else
+      newFamilies.addElement(family);
+  }
+}
@@ -54,13 +54,15 @@ class Restrictions
     excList[excCount++] = excID;
   }
 
-  public boolean hide(Person person)
+  // The birth key is passed in, since the person's events may not be in
+  // Parser.eventArena yet when this is called, see RecordParser.
+  public boolean hide(Person person, int birthKey)
   {
     boolean ret;
 
     if (noAlives)
     {
-      if ((person.birth != null) && (person.birth.getYear() >= cutoffYear))
+      if ((person.birth != EventArena.NONE) && (GedcomDate.getYear(birthKey) >= cutoffYear))
       {
         // The person is alive and we will reject him/her unless
         // he/she is in the include list.
@@ -0,0 +1,203 @@
+package zaluc.gparser200;
+
+import java.io.*;
+
+//+-- Class ValueCache -------------------------------------------------------+
+//|                                                                           |
+//| Syntax:       class ValueCache                                            |
+//|                                                                           |
+//| Description:  The ValueCache class remembers the objects made from the    |
+//|               values of recently seen lines, so that a value that comes   |
+//|               up again and again, like a DATE of "ABT 1850" or a PLAC of  |
+//|               a town everyone was born in, is only decoded and parsed     |
+//|               once and the result is shared by every event that has it.   |
+//|                                                                           |
+//|               The cache is keyed on the raw bytes of the value, like      |
+//|               XrefMap, so a hit doesn't create a String.  It holds a      |
+//|               fixed number of entries.  When it's full, an entry is      |
+//|               picked to be replaced with the CLOCK method:  a hand goes   |
+//|               around the entries, and each entry that has been used      |
+//|               since the hand last passed it is given another turn, while  |
+//|               the first one that hasn't is replaced.  Entries are found  |
+//|               through a hash table with a chain of entries in each        |
+//|               bucket.                                                     |
+//|                                                                           |
+//|               The objects in the cache are shared, so they must not be    |
+//|               changed once they are added.  A cache must only be used by  |
+//|               one thread.                                                 |
+//|                                                                           |
+//| Methods:      public Object lookup     (byte buf[], int start, int end)   |
+//|               public void   add        (byte buf[], int start, int end,   |
+//|                                         Object value)                     |
+//|               public int    capacity   ()                                 |
+//|               public void   addStats   (ValueCache other)                 |
+//|               public void   printStats (PrintStream out, String name)     |
+//|                                                                           |
+//|---------------------------------------------------------------------------+
+
+class ValueCache
+{
+  static final int DEFAULT_CAPACITY = 4096;
+  static final int MAX_KEY_LENGTH   = 256;   // Longer values aren't worth keeping
+
+  private byte    keys[][];
+  private int     hashes[];
+  private Object  values[];
+  private boolean used[];          // Used since the hand last passed
+  private int     next[];          // Next entry in the same bucket, or -1
+  private int     buckets[];       // First entry in each bucket, or -1
+  private int     count = 0;
+  private int     hand  = 0;
+
+  private long    hits      = 0;
+  private long    misses    = 0;
+  private long    evictions = 0;
+
+  public ValueCache ()
+  {
+    this (DEFAULT_CAPACITY);
+  }
+
+  // A capacity of 0 makes a cache that never holds anything
+  public ValueCache (int capacity)
+  {
+    int size = 16;
+    int i;
+
+    while (size < capacity * 2)
+      size *= 2;
+
+    keys    = new byte[capacity][];
+    hashes  = new int[capacity];
+    values  = new Object[capacity];
+    used    = new boolean[capacity];
+    next    = new int[capacity];
+    buckets = new int[size];
+    for (i = 0; i < size; i++)
+      buckets[i] = -1;
+  }
+
+  // Returns the object for the value in buf[start..end), or null if it
+  // isn't in the cache.
+  public Object lookup (byte buf[], int start, int end)
+  {
+    int hash = hash (buf, start, end);
+    int i;
+
+    for (i = buckets[hash & (buckets.length - 1)]; i >= 0; i = next[i])
+    {
+      if ((hashes[i] == hash) && keyEquals (keys[i], buf, start, end))
+      {
+        used[i] = true;
+        hits++;
+        return values[i];
+      }
+    }
+
+    misses++;
+    return null;
+  }
+
+  // Adds the object for the value in buf[start..end), which lookup has
+  // just said isn't in the cache.
+  public void add (byte buf[], int start, int end, Object value)
+  {
+    int hash = hash (buf, start, end);
+    int i;
+
+    if ((keys.length == 0) || (end - start > MAX_KEY_LENGTH))
+      return;
+
+    if (count < keys.length)
+      i = count++;
+    else
+    {
+      while (used[hand])
+      {
+        used[hand] = false;
+        hand = (hand + 1) % keys.length;
+      }
+      i    = hand;
+      hand = (hand + 1) % keys.length;
+      unlink (i);
+      evictions++;
+    }
+
+    keys[i]   = new byte[end - start];
+    System.arraycopy (buf, start, keys[i], 0, end - start);
+    hashes[i] = hash;
+    values[i] = value;
+    used[i]   = false;
+    next[i]   = buckets[hash & (buckets.length - 1)];
+    buckets[hash & (buckets.length - 1)] = i;
+  }
+
+  public int capacity ()
+  {
+    return keys.length;
+  }
+
+  // Adds the counts of another cache to this one's, so the caches of
+  // several threads can be reported together.
+  public void addStats (ValueCache other)
+  {
+    hits      += other.hits;
+    misses    += other.misses;
+    evictions += other.evictions;
+  }
+
+  public void printStats (PrintStream out, String name)
+  {
+    long lookups = hits + misses;
+
+    out.println (name + " cache: " + hits + " hits, " + misses + " misses (" +
+                 ((lookups > 0) ? (hits * 100 / lookups) : 0) + "% hit rate), " +
+                 evictions + " evictions, " + keys.length + " entries");
+  }
+
+  //+-------------------------------------------------+
+  //| Internal routines                               |
+  //+-------------------------------------------------+
+
+  // Takes an entry out of its bucket's chain
+  private void unlink (int entry)
+  {
+    int bucket = hashes[entry] & (buckets.length - 1);
+    int i;
+
+    if (buckets[bucket] == entry)
+      buckets[bucket] = next[entry];
+    else
+    {
+      for (i = buckets[bucket]; next[i] != entry; i = next[i])
+        ;
+      next[i] = next[entry];
+    }
+  }
+
+  private static boolean keyEquals (byte key[], byte buf[], int start, int end)
+  {
+    int i;
+
+    if (key.length != end - start)
+      return false;
+
+    for (i = 0; i < key.length; i++)
+      if (key[i] != buf[start + i])
+        return false;
+
+    return true;
+  }
+
+  // FNV-1a, like XrefMap
+  private static int hash (byte buf[], int start, int end)
+  {
+    int h = 0x811C9DC5;
+    int i;
+
+    for (i = start; i < end; i++)
+      h = (h ^ buf[i]) * 0x01000193;
+
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,201 @@
+package zaluc.gparser200;
+
+//+-- Class XrefMap ----------------------------------------------------------+
+//|                                                                           |
+//| Syntax:       class XrefMap                                               |
+//|                                                                           |
+//| Description:  The XrefMap class gives each distinct gedcom xref, like     |
+//|               @I123@, @P12a@ or @INDI_17@, a dense index:  the first xref |
+//|               seen gets 0, the next new one gets 1, and so on.  The       |
+//|               people and families are stored by these indices, so the    |
+//|               tables only ever hold as many entries as there are xrefs,   |
+//|               no matter how large or odd the IDs in the file are.         |
+//|                                                                           |
+//|               The map is keyed on the raw bytes of the xref, so looking  |
+//|               one up doesn't create a String.  The keys are copied into a |
+//|               single byte array, one after the other, and the hash table  |
+//|               uses open addressing with linear probing.  Each slot of the |
+//|               table holds the index of a key plus one, or 0 if the slot  |
+//|               is empty.                                                   |
+//|                                                                           |
+//| Methods:      public int    intern  (byte buf[], int start, int end)      |
+//|               public int    find    (byte buf[], int start, int end)      |
+//|               public int[]  internAll (XrefMap other)                     |
+//|               public int    size    ()                                    |
+//|               public String key     (int index)                           |
+//|                                                                           |
+//|---------------------------------------------------------------------------+
+
+class XrefMap
+{
+  private int  slots[];           // Index + 1 of the key in each slot
+  private int  hashes[];          // Hash of each key, by index
+  private int  keyStarts[];       // Start of each key in keyBytes, by index
+  private byte keyBytes[];
+  private int  keyBytesUsed = 0;
+  private int  count        = 0;
+
+  public XrefMap ()
+  {
+    this (1024);
+  }
+
+  public XrefMap (int expectedCount)
+  {
+    int size = 16;
+
+    while (size < expectedCount * 2)
+      size *= 2;
+
+    slots     = new int[size];
+    hashes    = new int[size / 2];
+    keyStarts = new int[size / 2 + 1];
+    keyBytes  = new byte[size / 2 * 8];
+  }
+
+  // Returns the index of the xref in buf[start..end), adding it if it's new
+  public int intern (byte buf[], int start, int end)
+  {
+    int hash = hash (buf, start, end);
+    int slot = probe (buf, start, end, hash);
+
+    if (slots[slot] != 0)
+      return slots[slot] - 1;
+
+    return add (buf, start, end, hash, slot);
+  }
+
+  // Returns the index of the xref in buf[start..end), or -1 if it isn't in
+  // the map.
+  public int find (byte buf[], int start, int end)
+  {
+    return slots[probe (buf, start, end, hash (buf, start, end))] - 1;
+  }
+
+  // Adds every key of another map to this one.  Returns an array that
+  // gives, for each index in the other map, the index in this one.
+  public int[] internAll (XrefMap other)
+  {
+    int remap[] = new int[other.count];
+    int i;
+
+    for (i = 0; i < other.count; i++)
+      remap[i] = intern (other.keyBytes, other.keyStarts[i], other.keyStarts[i + 1]);
+
+    return remap;
+  }
+
+  public int size ()
+  {
+    return count;
+  }
+
+  // Returns the xref with the given index.  Used for messages only.
+  public String key (int index)
+  {
+    return new String (keyBytes, keyStarts[index], keyStarts[index + 1] - keyStarts[index]);
+  }
+
+  //+-------------------------------------------------+
+  //| Internal routines                               |
+  //+-------------------------------------------------+
+
+  // Finds the slot that holds the key, or the empty slot where it belongs
+  private int probe (byte buf[], int start, int end, int hash)
+  {
+    int mask = slots.length - 1;
+    int slot = hash & mask;
+    int index;
+
+    while ((index = slots[slot] - 1) >= 0)
+    {
+      if ((hashes[index] == hash) && keyEquals (index, buf, start, end))
+        break;
+      slot = (slot + 1) & mask;
+    }
+
+    return slot;
+  }
+
+  private int add (byte buf[], int start, int end, int hash, int slot)
+  {
+    int len = end - start;
+    int index;
+
+    if ((count + 1) * 2 > slots.length)
+    {
+      grow();
+      slot = probe (buf, start, end, hash);
+    }
+
+    if (keyBytesUsed + len > keyBytes.length)
+    {
+      byte newBytes[] = new byte[Math.max (keyBytes.length * 2, keyBytesUsed + len)];
+      System.arraycopy (keyBytes, 0, newBytes, 0, keyBytesUsed);
+      keyBytes = newBytes;
+    }
+
+    System.arraycopy (buf, start, keyBytes, keyBytesUsed, len);
+    keyBytesUsed += len;
+
+    index = count++;
+    hashes[index]        = hash;
+    keyStarts[index + 1] = keyBytesUsed;
+    slots[slot]          = index + 1;
+
+    return index;
+  }
+
+  // Doubles the table and puts every key back into it
+  private void grow ()
+  {
+    int newHashes[] = new int[hashes.length * 2];
+    int newStarts[] = new int[hashes.length * 2 + 1];
+    int mask;
+    int slot;
+    int i;
+
+    System.arraycopy (hashes,    0, newHashes, 0, count);
+    System.arraycopy (keyStarts, 0, newStarts, 0, count + 1);
+    hashes    = newHashes;
+    keyStarts = newStarts;
+
+    slots = new int[slots.length * 2];
+    mask  = slots.length - 1;
+    for (i = 0; i < count; i++)
+    {
+      slot = hashes[i] & mask;
+      while (slots[slot] != 0)
+        slot = (slot + 1) & mask;
+      slots[slot] = i + 1;
+    }
+  }
+
+  private boolean keyEquals (int index, byte buf[], int start, int end)
+  {
+    int keyStart = keyStarts[index];
+    int i;
+
+    if (keyStarts[index + 1] - keyStart != end - start)
+      return false;
+
+    for (i = start; i < end; i++)
+      if (keyBytes[keyStart++] != buf[i])
+        return false;
+
+    return true;
+  }
+
+  // FNV-1a, with the high bits folded down since only the low bits pick
+  // the slot.
+  private static int hash (byte buf[], int start, int end)
+  {
+    int h = 0x811C9DC5;
+    int i;
+
+    for (i = start; i < end; i++)
+      h = (h ^ buf[i]) * 0x01000193;
+
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,89 @@
+package zaluc.utils;
+
+/**
+ * A first in, first out queue with a fixed capacity, for handing work from
+ * one thread to another.  The items are kept in a ring buffer.  A thread
+ * that puts an item into a full queue waits until another thread takes one
+ * out, so a fast producer can never get too far ahead of a slow consumer.
+ *
+ * When the producer has no more items, it closes the queue.  Consumers
+ * then get the items that are left, followed by null.
+ */
+public class BoundedQueue
+{
+  private Object  items[];
+  private int     head   = 0;     // Next item to take
+  private int     count  = 0;     // Number of items in the queue
+  private boolean closed = false;
+
+  /**
+   * Constructor.
+   *
+   * @param capacity  the most items the queue will hold at once.
+   */
+  public BoundedQueue (int capacity)
+  {
+    items = new Object[capacity];
+  }
+
+  /**
+   * Adds an item to the end of the queue, waiting for room if the queue
+   * is full.
+   *
+   * @param item  the item to add.  It must not be null.
+   * @exception IllegalStateException  if the queue has been closed.
+   */
+  public synchronized void put (Object item) throws InterruptedException
+  {
+    while ((count == items.length) && !closed)
+      wait();
+
+    if (closed)
+      throw new IllegalStateException ("BoundedQueue is closed");
+
+    items[(head + count) % items.length] = item;
+    count++;
+    notifyAll();
+  }
+
+  /**
+   * Removes the item at the front of the queue, waiting for one if the
+   * queue is empty.
+   *
+   * @return  the item, or null if the queue is empty and has been closed.
+   */
+  public synchronized Object take () throws InterruptedException
+  {
+    Object item;
+
+    while ((count == 0) && !closed)
+      wait();
+
+    if (count == 0)
+      return null;
+
+    item = items[head];
+    items[head] = null;
+    head = (head + 1) % items.length;
+    count--;
+    notifyAll();
+    return item;
+  }
+
+  /**
+   * Tells the consumers that no more items will be put into the queue.
+   */
+  public synchronized void close ()
+  {
+    closed = true;
+    notifyAll();
+  }
+
+  /**
+   * @return  the number of items in the queue.
+   */
+  public synchronized int size ()
+  {
+    return count;
+  }
+}
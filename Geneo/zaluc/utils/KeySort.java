@@ -0,0 +1,233 @@
+package zaluc.utils;
+
+import java.util.concurrent.*;
+
+/**
+ * A stable sort of an array of indices by keys that have been worked out
+ * ahead of time.  Instead of asking the objects to compare themselves, the
+ * way SortableVector does, the caller puts a key for each object into an
+ * array, and the sort only ever compares numbers.  Each object has a long
+ * key and, optionally, an int key that decides between equal long keys.
+ * Objects with equal keys stay in the order they were in.
+ *
+ * The sort is a bottom up merge sort on arrays.  Runs of RUN objects are
+ * put in order with an insertion sort first, and two runs that are already
+ * in order are not merged, so a list that is already sorted, or nearly so,
+ * takes little more than one pass.
+ *
+ * A long list can also be sorted on a ForkJoinPool.  The list is cut in
+ * half until the pieces are PARALLEL_MIN objects or fewer, the pieces are
+ * sorted on the pool's threads, and the halves are merged back together
+ * as they finish.
+ *
+ * @see    zaluc.utils.SortableVector
+ */
+public class KeySort
+{
+  private static final int RUN          = 32;
+  private static final int PARALLEL_MIN = 8192;
+
+  /**
+   * Sorts the first count entries of order.  Each entry is the index of
+   * an object in the key arrays.
+   *
+   * @param order      the indices to sort.
+   * @param count      how many of them there are.
+   * @param keys       the main key of each object.
+   * @param minorKeys  the key that decides between equal main keys, or
+   *                   null if there isn't one.
+   * @return  the number of comparisons that were made.
+   */
+  public static long sort (int order[], int count, long keys[], int minorKeys[])
+  {
+    return sortRange (order, (count > RUN) ? new int[count] : null, 0, count, keys, minorKeys);
+  }
+
+  /**
+   * Sorts the first count entries of order like sort, but on the threads
+   * of the given pool.  The order is the same as sort would give.
+   *
+   * @param order      the indices to sort.
+   * @param count      how many of them there are.
+   * @param keys       the main key of each object.
+   * @param minorKeys  the key that decides between equal main keys, or
+   *                   null if there isn't one.
+   * @param pool       the pool to sort on.
+   * @return  the number of comparisons that were made.
+   */
+  public static long parallelSort (int order[], int count, long keys[], int minorKeys[],
+                                   ForkJoinPool pool)
+  {
+    SortTask task;
+
+    if (count <= PARALLEL_MIN)
+      return sort (order, count, keys, minorKeys);
+
+    task = new SortTask (order, new int[count], 0, count, keys, minorKeys);
+    pool.invoke (task);
+    return task.comparisons;
+  }
+
+  /**
+   * Compares two objects by their keys.
+   *
+   * @return  < zero if a comes before b, zero if they are equal and
+   *          > zero if a comes after b.
+   */
+  public static int compare (int a, int b, long keys[], int minorKeys[])
+  {
+    if (keys[a] != keys[b])
+      return (keys[a] < keys[b]) ? -1 : 1;
+    if ((minorKeys == null) || (minorKeys[a] == minorKeys[b]))
+      return 0;
+    return (minorKeys[a] < minorKeys[b]) ? -1 : 1;
+  }
+
+  //+-- Class SortTask -------------------------------------------------------+
+  //| Sorts order[start..end) on a ForkJoinPool, using the same part of temp. |
+  //+-------------------------------------------------------------------------+
+  private static class SortTask extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    int  order[];
+    int  temp[];
+    int  start;
+    int  end;
+    long keys[];
+    int  minorKeys[];
+    long comparisons = 0;
+
+    SortTask (int order[], int temp[], int start, int end, long keys[], int minorKeys[])
+    {
+      this.order     = order;
+      this.temp      = temp;
+      this.start     = start;
+      this.end       = end;
+      this.keys      = keys;
+      this.minorKeys = minorKeys;
+    }
+
+    protected void compute ()
+    {
+      int      middle = (start + end) >>> 1;
+      SortTask left;
+      SortTask right;
+
+      if (end - start <= PARALLEL_MIN)
+      {
+        comparisons = sortRange (order, temp, start, end, keys, minorKeys);
+        return;
+      }
+
+      left  = new SortTask (order, temp, start, middle, keys, minorKeys);
+      right = new SortTask (order, temp, middle, end, keys, minorKeys);
+      invokeAll (left, right);
+      comparisons = left.comparisons + right.comparisons + 1;
+
+      if (compare (order[middle - 1], order[middle], keys, minorKeys) > 0)
+      {
+        comparisons += merge (order, temp, start, middle, end, keys, minorKeys);
+        System.arraycopy (temp, start, order, start, end - start);
+      }
+    }
+  }
+
+  // Sorts order[start..end), using the same part of temp to merge into
+  private static long sortRange (int order[], int temp[], int start, int end,
+                                 long keys[], int minorKeys[])
+  {
+    long comparisons = 0;
+    int  from[] = order;
+    int  to[]   = temp;
+    int  swap[];
+    int  width;
+    int  first;
+    int  middle;
+    int  last;
+
+    for (first = start; first < end; first += RUN)
+      comparisons += insertionSort (order, first, Math.min (first + RUN, end), keys, minorKeys);
+
+    if (end - start <= RUN)
+      return comparisons;
+
+    for (width = RUN; width < end - start; width *= 2)
+    {
+      for (first = start; first < end; first += 2 * width)
+      {
+        middle = Math.min (first + width, end);
+        last   = Math.min (first + 2 * width, end);
+
+        if (middle == last)
+        {
+          System.arraycopy (from, first, to, first, last - first);
+          continue;
+        }
+
+        comparisons++;
+        if (compare (from[middle - 1], from[middle], keys, minorKeys) <= 0)
+          System.arraycopy (from, first, to, first, last - first);   // Already in order
+        else
+          comparisons += merge (from, to, first, middle, last, keys, minorKeys);
+      }
+
+      swap = from;
+      from = to;
+      to   = swap;
+    }
+
+    if (from != order)
+      System.arraycopy (from, start, order, start, end - start);
+
+    return comparisons;
+  }
+
+  private static long insertionSort (int order[], int start, int end, long keys[], int minorKeys[])
+  {
+    long comparisons = 0;
+    int  i, j;
+    int  item;
+
+    for (i = start + 1; i < end; i++)
+    {
+      item = order[i];
+      for (j = i; j > start; j--)
+      {
+        comparisons++;
+        if (compare (order[j - 1], item, keys, minorKeys) <= 0)
+          break;
+        order[j] = order[j - 1];
+      }
+      order[j] = item;
+    }
+
+    return comparisons;
+  }
+
+  // Merges from[start..middle) and from[middle..end) into to[start..end).
+  // On equal keys the left one goes first, which keeps the sort stable.
+  private static long merge (int from[], int to[], int start, int middle, int end,
+                             long keys[], int minorKeys[])
+  {
+    long comparisons = 0;
+    int  left  = start;
+    int  right = middle;
+    int  i     = start;
+
+    while ((left < middle) && (right < end))
+    {
+      comparisons++;
+      if (compare (from[left], from[right], keys, minorKeys) <= 0)
+        to[i++] = from[left++];
+      else
+        to[i++] = from[right++];
+    }
+
+    System.arraycopy (from, left,  to, i, middle - left);
+    i += middle - left;
+    System.arraycopy (from, right, to, i, end - right);
+
+    return comparisons;
+  }
+}
@@ -0,0 +1,130 @@
+package zaluc.utils;
+
+import java.util.concurrent.*;
+
+/**
+ * A sorted view of a table whose rows are known by an index, like an array
+ * or a Vector.  The rows themselves are never moved.  The view keeps the
+ * order they are in once sorted, as an array of row indices, and the
+ * inverse of that order, the position of each row, so it can be asked
+ * both which row is at a position and at what position a row is, with
+ * one array lookup.
+ *
+ * A SortedView does the job of a SortableHandle in a SortableVector
+ * without an object for each row.  The position of a row is what
+ * SortableHandle.getIndex gave, and a table can have as many views as it
+ * needs, where an object needed a handle for each vector it was sorted in.
+ *
+ * A view may leave out some of the rows of the table, like the empty slots
+ * of a table indexed by xref.  Those rows have no position.  The view is
+ * sorted with KeySort, by keys that are indexed by row.
+ *
+ * @see    zaluc.utils.KeySort
+ * @see    zaluc.utils.SortableHandle
+ */
+public class SortedView
+{
+  /**
+   * The position of a row that isn't in the view.
+   */
+  public static final int NONE = -1;
+
+  private int order[];       // The row at each position
+  private int positions[];   // The position of each row, or NONE
+  private int count;
+
+  /**
+   * Makes a view of every row of a table, in row order.
+   *
+   * @param rowCount  the number of rows in the table.
+   */
+  public SortedView (int rowCount)
+  {
+    this (null, rowCount, rowCount);
+  }
+
+  /**
+   * Makes a view of some of the rows of a table, in the order given.
+   *
+   * @param rows      the rows in the view, or null for rows 0 to count - 1.
+   * @param count     the number of rows in the view.
+   * @param rowCount  the number of rows in the table.
+   */
+  public SortedView (int rows[], int count, int rowCount)
+  {
+    int i;
+
+    this.count = count;
+    order      = new int[count];
+    positions  = new int[rowCount];
+
+    if (rows != null)
+      System.arraycopy (rows, 0, order, 0, count);
+    else
+      for (i = 0; i < count; i++)
+        order[i] = i;
+
+    for (i = 0; i < rowCount; i++)
+      positions[i] = NONE;
+    invert();
+  }
+
+  /**
+   * Puts the rows in order by their keys.  Rows with equal keys stay in
+   * the order they were in.
+   *
+   * @param keys       the main key of each row, by row.
+   * @param minorKeys  the key that decides between equal main keys, by
+   *                   row, or null if there isn't one.
+   * @param pool       a pool to sort on, or null to sort on this thread.
+   *                   The order is the same either way.
+   * @return  the number of comparisons that were made.
+   */
+  public long sort (long keys[], int minorKeys[], ForkJoinPool pool)
+  {
+    long comparisons;
+
+    if (pool != null)
+      comparisons = KeySort.parallelSort (order, count, keys, minorKeys, pool);
+    else
+      comparisons = KeySort.sort (order, count, keys, minorKeys);
+
+    invert();
+    return comparisons;
+  }
+
+  /**
+   * Get the number of rows in the view.
+   */
+  public int size ()
+  {
+    return count;
+  }
+
+  /**
+   * Get the row at a position in the view.
+   */
+  public int row (int position)
+  {
+    return order[position];
+  }
+
+  /**
+   * Get the position of a row in the view.
+   *
+   * @return  the position, or NONE if the row isn't in the view.
+   */
+  public int position (int row)
+  {
+    return positions[row];
+  }
+
+  // Works out the position of each row from the order
+  private void invert ()
+  {
+    int i;
+
+    for (i = 0; i < count; i++)
+      positions[order[i]] = i;
+  }
+}
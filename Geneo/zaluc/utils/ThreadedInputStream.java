@@ -0,0 +1,181 @@
+package zaluc.utils;
+
+import java.io.*;
+
+/**
+ * An InputStream that reads another stream on a thread of its own.  The
+ * thread reads the other stream a block at a time and hands the blocks
+ * over through a BoundedQueue, so reading can go on while the caller works
+ * on what has already been read.  This is most useful when the other stream
+ * does real work in read, like a GZIPInputStream, since the inflating and
+ * the caller's work can then run on two processors.
+ *
+ * The queue holds only a few blocks, so the reading thread can't get far
+ * ahead of the caller.  An IOException on the reading thread is thrown
+ * to the caller once the blocks read before it have been used.
+ *
+ * @see    zaluc.utils.BoundedQueue
+ */
+public class ThreadedInputStream extends InputStream implements Runnable
+{
+  /**
+   * The default block size, 256 KB.
+   */
+  public static final int DEFAULT_BLOCK_SIZE  = 256 * 1024;
+
+  /**
+   * The default number of blocks that can be waiting in the queue.
+   */
+  public static final int DEFAULT_BLOCK_COUNT = 8;
+
+  private InputStream  in;
+  private BoundedQueue queue;
+  private Thread       thread;
+  private int          blockSize;
+  private byte         block[] = null;   // The block being read by the caller
+  private int          pos     = 0;
+  private boolean      eof     = false;
+  private IOException  error   = null;   // Set by the reading thread
+
+  /**
+   * Constructor.  Starts the reading thread.
+   *
+   * @param in  the stream to read.
+   */
+  public ThreadedInputStream (InputStream in)
+  {
+    this (in, DEFAULT_BLOCK_SIZE, DEFAULT_BLOCK_COUNT);
+  }
+
+  /**
+   * Constructor.  Starts the reading thread.
+   *
+   * @param in          the stream to read.
+   * @param blockSize   how many bytes are read at a time.
+   * @param blockCount  how many blocks can be waiting for the caller.
+   */
+  public ThreadedInputStream (InputStream in, int blockSize, int blockCount)
+  {
+    this.in        = in;
+    this.blockSize = blockSize;
+    this.queue     = new BoundedQueue (blockCount);
+    this.thread    = new Thread (this, "Input Thread");
+    this.thread.setDaemon (true);
+    this.thread.start();
+  }
+
+  public int read () throws IOException
+  {
+    if (!nextBlock())
+      return -1;
+    return block[pos++] & 0xFF;
+  }
+
+  public int read (byte b[], int off, int len) throws IOException
+  {
+    int count;
+
+    if (len == 0)
+      return 0;
+    if (!nextBlock())
+      return -1;
+
+    count = Math.min (len, block.length - pos);
+    System.arraycopy (block, pos, b, off, count);
+    pos += count;
+    return count;
+  }
+
+  public int available ()
+  {
+    return (block != null) ? block.length - pos : 0;
+  }
+
+  /**
+   * Stops the reading thread and closes the other stream.
+   */
+  public void close () throws IOException
+  {
+    queue.close();
+    thread.interrupt();
+    in.close();
+  }
+
+  /**
+   * The reading thread.  Reads full blocks until the end of the stream.
+   */
+  public void run ()
+  {
+    byte buf[];
+    byte last[];
+    int  len;
+    int  count;
+
+    try
+    {
+      do
+      {
+        buf = new byte[blockSize];
+        len = 0;
+        while ((len < blockSize) && ((count = in.read (buf, len, blockSize - len)) >= 0))
+          len += count;
+
+        if (len == blockSize)
+          queue.put (buf);
+        else if (len > 0)
+        {
+          last = new byte[len];
+          System.arraycopy (buf, 0, last, 0, len);
+          queue.put (last);
+        }
+      } while (len == blockSize);
+    }
+    catch (IOException e)
+    {
+      error = e;
+    }
+    catch (InterruptedException e)
+    {
+      // The stream was closed
+    }
+    catch (IllegalStateException e)
+    {
+      // The stream was closed while the thread was waiting to put a block
+    }
+    finally
+    {
+      queue.close();
+    }
+  }
+
+  // Makes sure there is something left in the current block.  Returns
+  // false at the end of the stream.
+  private boolean nextBlock () throws IOException
+  {
+    while ((block == null) || (pos == block.length))
+    {
+      if (eof)
+        return false;
+
+      try
+      {
+        block = (byte[]) queue.take();
+      }
+      catch (InterruptedException e)
+      {
+        throw new InterruptedIOException ("Reading was interrupted");
+      }
+
+      pos = 0;
+      if (block == null)
+      {
+        eof = true;
+        if (error != null)
+          throw error;
+        return false;
+      }
+    }
+
+    return true;
+  }
+}
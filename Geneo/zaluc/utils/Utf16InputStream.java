@@ -0,0 +1,194 @@
+package zaluc.utils;
+
+import java.io.*;
+
+/**
+ * An InputStream that turns a UTF-16 stream into UTF-8 as it is read.
+ * It lets code that works on the raw bytes of a file, and looks for ASCII
+ * characters like line ends and spaces, read a UTF-16 file without
+ * converting the whole file first.  Every ASCII character comes out as
+ * the same single byte, and everything else comes out as a UTF-8 sequence.
+ *
+ * A surrogate pair is turned into one four byte sequence.  A surrogate
+ * without its other half comes out as U+FFFD, as does a trailing odd byte.
+ */
+public class Utf16InputStream extends InputStream
+{
+  private static final int REPLACEMENT = 0xFFFD;
+
+  private InputStream in;
+  private boolean     bigEndian;
+  private byte        raw[]      = new byte[16384];   // UTF-16 bytes read but not yet converted
+  private int         rawPos     = 0;
+  private int         rawLen     = 0;
+  private byte        pending[]  = new byte[4];       // UTF-8 bytes that didn't fit in the caller's buffer
+  private int         pendingPos = 0;
+  private int         pendingLen = 0;
+  private int         savedUnit  = -1;                // A unit read ahead while looking for a low surrogate
+  private boolean     eof        = false;
+
+  /**
+   * Constructor.
+   *
+   * @param in         the UTF-16 stream, without its byte order mark.
+   * @param bigEndian  true if the stream is big endian, false if it's
+   *                   little endian.
+   */
+  public Utf16InputStream (InputStream in, boolean bigEndian)
+  {
+    this.in        = in;
+    this.bigEndian = bigEndian;
+  }
+
+  /**
+   * Reads one byte of UTF-8.
+   */
+  public int read () throws IOException
+  {
+    int c;
+
+    if (pendingPos == pendingLen)
+    {
+      if ((c = nextCodePoint()) < 0)
+        return -1;
+      pendingLen = encode (c, pending, 0);
+      pendingPos = 0;
+    }
+
+    return pending[pendingPos++] & 0xFF;
+  }
+
+  /**
+   * Reads up to len bytes of UTF-8.
+   */
+  public int read (byte b[], int off, int len) throws IOException
+  {
+    int n = 0;
+    int c;
+
+    while (n < len)
+    {
+      if (pendingPos < pendingLen)
+      {
+        b[off + n++] = pending[pendingPos++];
+        continue;
+      }
+
+      if ((c = nextCodePoint()) < 0)
+        break;
+
+      if (len - n >= 4)
+        n += encode (c, b, off + n);
+      else
+      {
+        pendingLen = encode (c, pending, 0);
+        pendingPos = 0;
+      }
+    }
+
+    return ((n == 0) && (len > 0)) ? -1 : n;
+  }
+
+  public void close () throws IOException
+  {
+    in.close();
+  }
+
+  // Returns the next code point in the stream, or -1 at the end
+  private int nextCodePoint () throws IOException
+  {
+    int unit;
+    int low;
+
+    if (savedUnit >= 0)
+    {
+      unit      = savedUnit;
+      savedUnit = -1;
+    }
+    else if ((unit = nextUnit()) < 0)
+      return -1;
+
+    if ((unit >= 0xD800) && (unit <= 0xDBFF))
+    {
+      low = nextUnit();
+      if ((low >= 0xDC00) && (low <= 0xDFFF))
+        return 0x10000 + ((unit - 0xD800) << 10) + (low - 0xDC00);
+      savedUnit = low;
+      return REPLACEMENT;
+    }
+    if ((unit >= 0xDC00) && (unit <= 0xDFFF))
+      return REPLACEMENT;
+
+    return unit;
+  }
+
+  // Returns the next 16 bit unit in the stream, or -1 at the end
+  private int nextUnit () throws IOException
+  {
+    int count;
+    int unit;
+
+    if (rawLen - rawPos < 2)
+    {
+      if (rawPos > 0)
+      {
+        System.arraycopy (raw, rawPos, raw, 0, rawLen - rawPos);
+        rawLen -= rawPos;
+        rawPos  = 0;
+      }
+      while (!eof && (rawLen < 2))
+      {
+        if ((count = in.read (raw, rawLen, raw.length - rawLen)) < 0)
+          eof = true;
+        else
+          rawLen += count;
+      }
+      if (rawLen < 2)
+      {
+        if (rawLen == 1)
+        {
+          rawLen = 0;
+          return REPLACEMENT;   // A trailing odd byte
+        }
+        return -1;
+      }
+    }
+
+    if (bigEndian)
+      unit = ((raw[rawPos] & 0xFF) << 8) | (raw[rawPos + 1] & 0xFF);
+    else
+      unit = ((raw[rawPos + 1] & 0xFF) << 8) | (raw[rawPos] & 0xFF);
+    rawPos += 2;
+
+    return unit;
+  }
+
+  // Puts the UTF-8 bytes for a code point into b and returns how many
+  // there are.
+  private static int encode (int c, byte b[], int off)
+  {
+    if (c < 0x80)
+    {
+      b[off] = (byte) c;
+      return 1;
+    }
+    if (c < 0x800)
+    {
+      b[off]     = (byte) (0xC0 | (c >> 6));
+      b[off + 1] = (byte) (0x80 | (c & 0x3F));
+      return 2;
+    }
+    if (c < 0x10000)
+    {
+      b[off]     = (byte) (0xE0 | (c >> 12));
+      b[off + 1] = (byte) (0x80 | ((c >> 6) & 0x3F));
+      b[off + 2] = (byte) (0x80 | (c & 0x3F));
+      return 3;
+    }
+    b[off]     = (byte) (0xF0 | (c >> 18));
+    b[off + 1] = (byte) (0x80 | ((c >> 12) & 0x3F));
+    b[off + 2] = (byte) (0x80 | ((c >> 6) & 0x3F));
+    b[off + 3] = (byte) (0x80 | (c & 0x3F));
+    return 4;
+  }
+}